@@ -10,12 +10,31 @@
  * L'algortimo legge da riga di comando i nomi dei due file contenenti gli alberi
  * e li confronta.
  * - buldPairsTree() costruisce l'albero dal file contenente le coppie padre figlio.
- * - buildNestedTree() costruisce l'albero dal file contenente le liste annidate.
+ * - buildNestedTree() costruisce l'albero dal file contenente le liste annidate,
+ *   leggendolo a blocchi di byte con una pila esplicita (nessuna ricorsione).
  * - Tree memorizza i due alberi e Node il singolo nodo con l'insieme dei propri figli.
+ * - CompactTree è una rappresentazione alternativa a interi (figli in formato CSR),
+ *   selezionabile con l'opzione -compact. Entrambi i metodi di costruzione scrivono
+ *   su un TreeBuilder, quindi funzionano con tutte e due le rappresentazioni.
+ * - PairsLoader legge in parallelo il file delle coppie, mappato in memoria,
+ *   direttamente in array di interi e verifica che descriva un albero.
+ * - TreeDiff scrive in streaming, con il percorso dalla radice, i sottoalberi
+ *   divergenti tra i due alberi (opzione -diff).
+ * - dump() scrive la visita in ampiezza di un CompactTree direttamente su un Writer,
+ *   con una coda di interi e limiti opzionali di profondità e larghezza (opzione -dump).
+ * - BatchComparison confronta un albero di riferimento, costruito una volta sola,
+ *   con molti file candidati in parallelo, usando un indice delle impronte dei
+ *   sottoalberi del riferimento (opzione -batch).
+ * - parallelEquals() confronta due CompactTree su un ForkJoinPool (opzione -parallel),
+ *   dividendo il lavoro sui nodi pesanti e fermando tutti i task alla prima differenza.
  * - Il confronto viene eseguito tramite i metodi equals() ridefiniti di Tree e Node.
  * - hashCode() ridefinito per Node permette il corretto funzionamento del metodo 
  *   equals() di HashSet, che sftutta l'hashing per trovare nodi con lo stesso valore
  *   nel confronto tra i set di figli.
+ * - fingerprint() calcola una sola volta, dal basso verso l'alto, l'impronta canonica
+ *   di ogni sottoalbero (hash del valore e delle impronte ordinate dei figli, come
+ *   nell'algoritmo AHU). Due alberi con impronte diverse sono sicuramente diversi;
+ *   solo se le impronte coincidono viene eseguito il controllo strutturale completo.
  */
 
 /**
@@ -33,6 +52,13 @@
  * In questo modo, l'algoritmo confronta ricorsivamente tutti i nodi, portando a un costo
  * computazionale lineare O(n), assumendo che la funzione di Hash efficiente.
  * Tuttavia, in caso di elevate collisioni nell'hashing, il costo può salire fino a O(n^2).
+ *
+ * IMPRONTE DEI SOTTOALBERI
+ * Il calcolo delle impronte ordina, per ogni nodo con k figli, le k impronte dei figli:
+ * il costo complessivo è O(n*log(k)) e viene pagato una sola volta per albero.
+ * Il confronto strutturale accoppia i figli tramite la loro impronta (tabella hash),
+ * quindi anche con molti valori ripetuti ogni coppia di nodi viene visitata una volta
+ * sola: O(n) invece di O(n^2).
  * 
  * MASTER THEOREM
  * Nel caso medio, in cui si hanno due alberi bilanciati in modo che i nodi abbiano un
@@ -54,18 +80,49 @@
  */
 
 // java Esercizio1 parent_child_pairs.txt nested_list.txt
+// java Esercizio1 -compact parent_child_pairs.txt nested_list.txt
+// java Esercizio1 -parallel parent_child_pairs.txt nested_list.txt
+// java Esercizio1 -diff differenze.txt parent_child_pairs.txt nested_list.txt
+// java Esercizio1 -dump alberi.txt -depth 10 -width 1000 parent_child_pairs.txt nested_list.txt
+// java Esercizio1 -batch -threads 8 parent_child_pairs.txt candidato1.txt candidato2.txt ...
 
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 public class Esercizio1 {
     static Tree pairsTree;  // Albero costruito dal file con coppie padre-figlio
@@ -81,6 +138,8 @@ public class Esercizio1 {
         private static class Node {
             private final int value;
             private Set<Node> children;
+            private long fingerprint;   // Impronta canonica del sottoalbero
+            private boolean hashed;     // Vero se l'impronta è già stata calcolata
             
             public Node(int value) {
                 this.value = value;
@@ -99,14 +158,22 @@ public class Esercizio1 {
                 this.children.add(child);
             }
 
+            public long getFingerprint() {
+                return fingerprint;
+            }
+
             @Override
             public int hashCode() {
                 return Integer.hashCode(value);
             }
 
             /**
-             * Confronta ricorsivamente i due nodi
-             * e gli insiemi dei figli dei due nodi.
+             * Confronta i due nodi e i loro sottoalberi. Se entrambe le impronte
+             * sono calcolate decide con l'impronta e con sameStructure(), che usa
+             * una pila esplicita: HashSet.add() chiama equals() sui fratelli con la
+             * stessa impronta, e la ricorsione su HashSet.equals() esaurirebbe lo
+             * stack con sottoalberi profondi. Solo per nodi ancora senza impronta
+             * (albero in costruzione) confronta ricorsivamente gli insiemi dei figli.
              */
             @Override
             public boolean equals(Object obj) {
@@ -115,6 +182,10 @@ public class Esercizio1 {
                 }
 
                 Node other = (Node) obj;
+                if (this.hashed && other.hashed) {
+                    // Impronte diverse: sottoalberi sicuramente diversi.
+                    return this.fingerprint == other.fingerprint && sameStructure(this, other);
+                }
                 return this.value == other.getValue() && this.children.equals(other.getChildren());
             }
 
@@ -126,6 +197,95 @@ public class Esercizio1 {
 
         public Tree(Node root) {
             this.root = root;
+            fingerprint(root);
+        }
+
+
+        /* Costruisce l'albero con nodi collegati, a partire dagli identificativi dei nodi. */
+        private static class Builder implements TreeBuilder<Tree> {
+            private final List<Node> nodes = new ArrayList<>();
+
+            public int addNode(int value) {
+                nodes.add(new Node(value));
+                return nodes.size() - 1;
+            }
+
+            public void addChild(int parent, int child) {
+                nodes.get(parent).addChild(nodes.get(child));
+            }
+
+            public void closeNode(int node) {
+                fingerprint(nodes.get(node));
+            }
+
+            public Tree build(int root) {
+                return new Tree(nodes.get(root));
+            }
+        }
+
+        /**
+         * Calcola le impronte di tutti i sottoalberi dal basso verso l'alto.
+         * I nodi vengono raccolti in pre-ordine con una pila esplicita e poi
+         * elaborati in ordine inverso, così ogni figlio precede il padre.
+         * I nodi già elaborati vengono saltati (memoizzazione).
+         */
+        private static void fingerprint(Node root) {
+            List<Node> order = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node current = stack.pop();
+                if (current.hashed) {
+                    continue;
+                }
+                order.add(current);
+                for (Node child : current.getChildren()) {
+                    stack.push(child);
+                }
+            }
+
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Node current = order.get(i);
+                long[] childPrints = new long[current.getChildren().size()];
+                int k = 0;
+                for (Node child : current.getChildren()) {
+                    childPrints[k++] = child.fingerprint;
+                }
+                Arrays.sort(childPrints);   // Ordine canonico: i figli non sono ordinati
+                current.fingerprint = combine(current.getValue(), childPrints, childPrints.length);
+                current.hashed = true;
+            }
+        }
+
+        /**
+         * Controllo strutturale completo, eseguito solo se le impronte coincidono.
+         * Usa una pila esplicita di coppie di nodi: i figli dei due nodi vengono
+         * accoppiati tramite l'impronta, quindi ogni coppia è visitata una volta.
+         */
+        private static boolean sameStructure(Node a, Node b) {
+            Deque<Node[]> stack = new ArrayDeque<>();
+            stack.push(new Node[] {a, b});
+            while (!stack.isEmpty()) {
+                Node[] pair = stack.pop();
+                Node x = pair[0], y = pair[1];
+                if (x.getValue() != y.getValue() || x.fingerprint != y.fingerprint
+                        || x.getChildren().size() != y.getChildren().size()) {
+                    return false;
+                }
+
+                Map<Long, Deque<Node>> byPrint = new HashMap<>();
+                for (Node child : y.getChildren()) {
+                    byPrint.computeIfAbsent(child.fingerprint, f -> new ArrayDeque<>()).push(child);
+                }
+                for (Node child : x.getChildren()) {
+                    Deque<Node> candidates = byPrint.get(child.fingerprint);
+                    if (candidates == null || candidates.isEmpty()) {
+                        return false;
+                    }
+                    stack.push(new Node[] {child, candidates.pop()});
+                }
+            }
+            return true;
         }
 
         public Node getRoot() {
@@ -138,8 +298,8 @@ public class Esercizio1 {
         }
 
         /**
-         * Confronta le radici dei due alberi,
-         * richiamando il metodo .equals della classe Node.
+         * Confronta le impronte delle radici dei due alberi e,
+         * solo se coincidono, esegue il controllo strutturale completo.
          */
         @Override
         public boolean equals(Object obj) {
@@ -147,13 +307,19 @@ public class Esercizio1 {
                 return false;
             }
             Tree other = (Tree) obj;
-            return this.root.equals(other.getRoot());
+            if (this.root.getFingerprint() != other.getRoot().getFingerprint()) {
+                return false;
+            }
+            return sameStructure(this.root, other.getRoot());
         }
 
-        /* Visita in ampiezza (BFS) per stampare l'albero. */
-        private String visit() {
-            String s = "";
-            Queue<Node> queue = new LinkedList<>();
+        /**
+         * Visita in ampiezza (BFS) per stampare l'albero.
+         * Ogni livello viene scritto direttamente sul Writer,
+         * senza costruire la stringa completa.
+         */
+        private void visit(Writer out) throws IOException {
+            Queue<Node> queue = new ArrayDeque<>();
             queue.add(this.root);
 
             while(!queue.isEmpty()) {
@@ -161,75 +327,1278 @@ public class Esercizio1 {
 
                 for (int i = 0; i < levelSize; i++) {
                     Node current = queue.poll();
-                    s = s + current.getValue() + (" ");
+                    out.write(Integer.toString(current.getValue()));
+                    out.write(' ');
                     queue.addAll(current.getChildren());
                 }
-                s+="\n";
+                out.write('\n');
             }
-            return s;
         }
 
         public String toString() {
-            return visit();
+            StringWriter out = new StringWriter();
+            try {
+                visit(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
         }
     }
     
     
 
+    /**
+     * Rappresentazione compatta dell'albero, alternativa a Tree:
+     * ogni nodo è un indice intero e i figli sono memorizzati in formato CSR
+     * (childStart[u]..childStart[u+1] in children), ordinati per impronta e
+     * senza duplicati (stessa semantica di insieme dei figli di Node).
+     * Occupa circa 20 byte per nodo, contro gli oltre 100 di Node con HashSet.
+     */
+    private static class CompactTree {
+        static final int PARALLEL_THRESHOLD = 1 << 14;  // Nodi sotto cui il confronto resta sequenziale
+
+        private final int root;
+        private final int[] values;         // Valore di ogni nodo
+        private final long[] prints;        // Impronta canonica del sottoalbero di ogni nodo
+        private final int[] sizes;          // Numero di nodi del sottoalbero di ogni nodo
+        private final int[] childStart;     // Inizio dei figli di ogni nodo in children
+        private final int[] children;       // Figli di tutti i nodi, contigui
+
+
+        /**
+         * Raccoglie i nodi come liste primo figlio/fratello successivo
+         * e li converte in CSR al momento di build().
+         */
+        private static class Builder implements TreeBuilder<CompactTree> {
+            private int size;
+            private int links;
+            private int[] values;
+            private int[] firstChild;
+            private int[] nextSibling;
+
+            public Builder() {
+                this(16);
+            }
+
+            public Builder(int capacity) {
+                capacity = Math.max(1, capacity);
+                values = new int[capacity];
+                firstChild = new int[capacity];
+                nextSibling = new int[capacity];
+            }
+
+            public int addNode(int value) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                    firstChild = Arrays.copyOf(firstChild, size * 2);
+                    nextSibling = Arrays.copyOf(nextSibling, size * 2);
+                }
+                values[size] = value;
+                firstChild[size] = -1;
+                nextSibling[size] = -1;
+                return size++;
+            }
+
+            public void addChild(int parent, int child) {
+                nextSibling[child] = firstChild[parent];
+                firstChild[parent] = child;
+                links++;
+            }
+
+            public CompactTree build(int root) {
+                return new CompactTree(this, root);
+            }
+        }
+
+
+        private CompactTree(Builder b, int root) {
+            int n = b.size;
+            this.root = root;
+            this.values = Arrays.copyOf(b.values, n);
+            this.prints = new long[n];
+            this.sizes = new int[n];
+
+            // Pre-ordine iterativo dalla radice: ogni nodo viene visitato una sola volta.
+            int[] order = new int[n];
+            boolean[] seen = new boolean[n];
+            int[] stack = new int[n];
+            int count = 0, top = 0;
+            stack[top++] = root;
+            seen[root] = true;
+            while (top > 0) {
+                int u = stack[--top];
+                order[count++] = u;
+                for (int c = b.firstChild[u]; c != -1; c = b.nextSibling[c]) {
+                    if (!seen[c]) {
+                        seen[c] = true;
+                        stack[top++] = c;
+                    }
+                }
+            }
+
+            // Figli raggiungibili in CSR provvisorio.
+            int[] start = new int[n + 1];
+            for (int i = 0; i < count; i++) {
+                int u = order[i];
+                for (int c = b.firstChild[u]; c != -1; c = b.nextSibling[c]) {
+                    start[u + 1]++;
+                }
+            }
+            for (int u = 0; u < n; u++) {
+                start[u + 1] += start[u];
+            }
+            int[] kids = new int[b.links];
+            int[] fill = Arrays.copyOf(start, n);
+            for (int i = 0; i < count; i++) {
+                int u = order[i];
+                for (int c = b.firstChild[u]; c != -1; c = b.nextSibling[c]) {
+                    kids[fill[u]++] = c;
+                }
+            }
+
+            // Impronte dal basso verso l'alto: ordine inverso del pre-ordine.
+            int[] scratch = new int[Math.max(1, b.links)];
+            long[] sorted = new long[Math.max(1, b.links)];
+            int[] length = new int[n];
+            for (int i = count - 1; i >= 0; i--) {
+                int u = order[i];
+                int from = start[u], to = start[u + 1];
+                sortByPrint(kids, from, to, prints, scratch);
+
+                // Elimina i figli con impronta ripetuta (semantica di insieme).
+                int k = 0;
+                sizes[u] = 1;
+                for (int j = from; j < to; j++) {
+                    if (k == 0 || prints[kids[j]] != sorted[k - 1]) {
+                        sorted[k] = prints[kids[j]];
+                        kids[from + k] = kids[j];
+                        sizes[u] += sizes[kids[j]];
+                        k++;
+                    }
+                }
+                length[u] = k;
+                prints[u] = combine(values[u], sorted, k);
+            }
+
+            // CSR definitivo, compattato.
+            this.childStart = new int[n + 1];
+            for (int u = 0; u < n; u++) {
+                childStart[u + 1] = childStart[u] + length[u];
+            }
+            this.children = new int[childStart[n]];
+            for (int u = 0; u < n; u++) {
+                System.arraycopy(kids, start[u], children, childStart[u], length[u]);
+            }
+        }
+
+        /* Ordina (merge sort stabile) il segmento a[from..to) per impronta crescente. */
+        private static void sortByPrint(int[] a, int from, int to, long[] key, int[] tmp) {
+            for (int width = 1; width < to - from; width *= 2) {
+                for (int lo = from; lo < to - width; lo += 2 * width) {
+                    int mid = lo + width, hi = Math.min(lo + 2 * width, to);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) {
+                        tmp[k++] = key[a[j]] < key[a[i]] ? a[j++] : a[i++];
+                    }
+                    while (i < mid) {
+                        tmp[k++] = a[i++];
+                    }
+                    while (j < hi) {
+                        tmp[k++] = a[j++];
+                    }
+                    System.arraycopy(tmp, lo, a, lo, hi - lo);
+                }
+            }
+        }
+
+        public int getRoot() {
+            return root;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public int getValue(int node) {
+            return values[node];
+        }
+
+        public long getFingerprint(int node) {
+            return prints[node];
+        }
+
+        public int subtreeSize(int node) {
+            return sizes[node];
+        }
+
+        public int firstChild(int node) {
+            return childStart[node];
+        }
+
+        public int endChild(int node) {
+            return childStart[node + 1];
+        }
+
+        public int child(int index) {
+            return children[index];
+        }
+
+        /**
+         * Visita in ampiezza che scrive ogni livello direttamente sul Writer,
+         * con una coda circolare di interi. Vengono scritti al più maxDepth
+         * livelli e al più maxWidth nodi per livello (i nodi esclusi sono
+         * indicati con "..." e i loro figli non vengono visitati), quindi la
+         * coda non supera mai 2*maxWidth elementi.
+         * Usare Integer.MAX_VALUE per non porre limiti.
+         */
+        public void dump(Writer out, int maxDepth, int maxWidth) throws IOException {
+            IntQueue queue = new IntQueue(16);
+            queue.add(root);
+            int levelSize = 1;
+            boolean truncated = false;
+
+            for (int level = 0; levelSize > 0 && level < maxDepth; level++) {
+                int next = 0;
+                boolean nextTruncated = false;
+                for (int i = 0; i < levelSize; i++) {
+                    int u = queue.poll();
+                    out.write(Integer.toString(values[u]));
+                    out.write(' ');
+                    if (level + 1 < maxDepth) {
+                        for (int j = childStart[u]; j < childStart[u + 1]; j++) {
+                            if (next < maxWidth) {
+                                queue.add(children[j]);
+                                next++;
+                            } else {
+                                nextTruncated = true;
+                            }
+                        }
+                    }
+                }
+                if (truncated) {
+                    out.write("...");
+                }
+                out.write('\n');
+                levelSize = next;
+                truncated = nextTruncated;
+            }
+            out.flush();
+        }
+
+        @Override
+        public String toString() {
+            StringWriter out = new StringWriter();
+            try {
+                dump(out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(prints[root]);
+        }
+
+        /**
+         * Confronta le impronte delle radici e, se coincidono, verifica
+         * la struttura: i figli sono già ordinati per impronta, quindi
+         * basta scorrerli in parallelo con una pila di coppie di indici.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CompactTree)) {
+                return false;
+            }
+            CompactTree other = (CompactTree) obj;
+            if (this.prints[root] != other.prints[other.root]) {
+                return false;
+            }
+            return sameSubtree(other, this.root, other.root, null);
+        }
+
+        /**
+         * Verifica con una pila esplicita che il sottoalbero di x coincida con
+         * quello di y nell'altro albero. Se stop non è null, la visita si
+         * interrompe appena un altro task segnala una differenza.
+         */
+        private boolean sameSubtree(CompactTree other, int x, int y, AtomicBoolean stop) {
+            int[] stack = new int[64];
+            int top = 0;
+            stack[top++] = x;
+            stack[top++] = y;
+            int steps = 0;
+            while (top > 0) {
+                if (stop != null && (++steps & 1023) == 0 && stop.get()) {
+                    return true;    // Il risultato è già deciso da un altro task
+                }
+                y = stack[--top];
+                x = stack[--top];
+                int from = this.childStart[x], to = this.childStart[x + 1];
+                int otherFrom = other.childStart[y];
+                if (!sameNode(other, x, y)) {
+                    return false;
+                }
+                if (top + 2 * (to - from) > stack.length) {
+                    stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + 2 * (to - from)));
+                }
+                for (int j = 0; j < to - from; j++) {
+                    stack[top++] = this.children[from + j];
+                    stack[top++] = other.children[otherFrom + j];
+                }
+            }
+            return true;
+        }
+
+        /* Confronta valore, impronta e numero di figli di due nodi. */
+        private boolean sameNode(CompactTree other, int x, int y) {
+            return this.values[x] == other.values[y] && this.prints[x] == other.prints[y]
+                    && this.childStart[x + 1] - this.childStart[x] == other.childStart[y + 1] - other.childStart[y];
+        }
+
+        /**
+         * Confronto parallelo sul ForkJoinPool indicato.
+         * Il lavoro viene diviso sui nodi pesanti o con molti figli;
+         * i sottoalberi con meno di PARALLEL_THRESHOLD nodi restano sequenziali.
+         */
+        public boolean parallelEquals(CompactTree other, ForkJoinPool pool) {
+            if (this.prints[root] != other.prints[other.root] || !sameNode(other, root, other.root)) {
+                return false;
+            }
+            AtomicBoolean mismatch = new AtomicBoolean(false);
+            pool.invoke(new CompareTask(other, childStart[root], childStart[root + 1], other.childStart[other.root], mismatch));
+            return !mismatch.get();
+        }
+
+
+        /**
+         * Confronta le coppie di figli this.children[from..to) e
+         * other.children[otherFrom..]. Alla prima differenza imposta
+         * mismatch e annulla i task fratelli non ancora avviati.
+         */
+        private class CompareTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final CompactTree other;
+            private final int from, to, otherFrom;
+            private final AtomicBoolean mismatch;
+
+            CompareTask(CompactTree other, int from, int to, int otherFrom, AtomicBoolean mismatch) {
+                this.other = other;
+                this.from = from;
+                this.to = to;
+                this.otherFrom = otherFrom;
+                this.mismatch = mismatch;
+            }
+
+            /**
+             * Segue il figlio più pesante nello stesso task e delega gli altri
+             * figli a nuovi task, raggruppati in blocchi di peso al più metà
+             * dell'intervallo: l'annidamento dei task resta O(log n) anche
+             * su alberi molto profondi.
+             */
+            @Override
+            protected void compute() {
+                List<CompareTask> forked = new ArrayList<>();
+                int from = this.from, to = this.to, otherFrom = this.otherFrom;
+                while (!mismatch.get()) {
+                    long weight = 0;
+                    int heavy = from;
+                    for (int j = from; j < to; j++) {
+                        weight += sizes[children[j]];
+                        if (sizes[children[j]] > sizes[children[heavy]]) {
+                            heavy = j;
+                        }
+                    }
+
+                    if (weight <= PARALLEL_THRESHOLD) {
+                        // Sottoalberi piccoli: confronto sequenziale.
+                        for (int j = from; j < to && !mismatch.get(); j++) {
+                            if (!sameSubtree(other, children[j], other.children[otherFrom + j - from], mismatch)) {
+                                mismatch.set(true);
+                            }
+                        }
+                        break;
+                    }
+
+                    // Figli diversi dal più pesante: blocchi contigui affidati ad altri task.
+                    long chunk = 0;
+                    int chunkFrom = -1;
+                    for (int j = from; j <= to; j++) {
+                        boolean flush = j == to || j == heavy || chunk + sizes[children[j]] > weight / 2;
+                        if (flush && chunkFrom != -1) {
+                            CompareTask task = new CompareTask(other, chunkFrom, j, otherFrom + chunkFrom - from, mismatch);
+                            task.fork();
+                            forked.add(task);
+                            chunkFrom = -1;
+                            chunk = 0;
+                        }
+                        if (j == to || j == heavy) {
+                            continue;
+                        }
+                        if (chunkFrom == -1) {
+                            chunkFrom = j;
+                        }
+                        chunk += sizes[children[j]];
+                    }
+
+                    // Il figlio più pesante viene confrontato qui, scendendo sui suoi figli.
+                    int x = children[heavy], y = other.children[otherFrom + heavy - from];
+                    if (!sameNode(other, x, y)) {
+                        mismatch.set(true);
+                        break;
+                    }
+                    from = childStart[x];
+                    to = childStart[x + 1];
+                    otherFrom = other.childStart[y];
+                }
+
+                // Alla prima differenza i task non ancora avviati vengono annullati.
+                for (CompareTask task : forked) {
+                    if (mismatch.get()) {
+                        task.cancel(false);
+                    } else {
+                        task.join();
+                    }
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * Differenze strutturali tra due CompactTree, calcolate in un'unica visita.
+     * Le coppie di figli con la stessa impronta sono identiche e vengono saltate;
+     * i figli rimanenti vengono accoppiati per valore e confrontati ricorsivamente
+     * (con una pila esplicita). Per ogni sottoalbero divergente viene scritta una
+     * riga con il percorso dalla radice, direttamente sul Writer:
+     *  VALORE <percorso> : a -> b      nodi corrispondenti con valore diverso
+     *  SOLO_PRIMO <percorso> (k nodi)  sottoalbero presente solo nel primo albero
+     *  SOLO_SECONDO <percorso> (k nodi) sottoalbero presente solo nel secondo albero
+     * Se dopo l'accoppiamento per valore resta un solo figlio per parte, i due
+     * vengono considerati lo stesso nodo con valore cambiato.
+     */
+    private static class TreeDiff {
+        private final CompactTree a, b;
+        private final Writer out;
+        private long entries;
+        private int[] path = new int[64];   // Valori dei nodi dalla radice al nodo corrente
+
+        private TreeDiff(CompactTree a, CompactTree b, Writer out) {
+            this.a = a;
+            this.b = b;
+            this.out = out;
+        }
+
+        /* Scrive le differenze tra a e b e ritorna il numero di righe scritte. */
+        public static long diff(CompactTree a, CompactTree b, Writer out) throws IOException {
+            TreeDiff d = new TreeDiff(a, b, out);
+            d.run();
+            return d.entries;
+        }
+
+        private void run() throws IOException {
+            // Pila di terne (nodo di a, nodo di b, profondità).
+            int[] stack = new int[96];
+            int top = 0;
+            stack[top++] = a.getRoot();
+            stack[top++] = b.getRoot();
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int depth = stack[--top];
+                int y = stack[--top];
+                int x = stack[--top];
+                if (depth + 1 >= path.length) {
+                    path = Arrays.copyOf(path, path.length * 2);
+                }
+                path[depth] = a.getValue(x);
+                if (a.getFingerprint(x) == b.getFingerprint(y)) {
+                    continue;   // Sottoalberi identici
+                }
+                if (a.getValue(x) != b.getValue(y)) {
+                    write("VALORE", depth, " : " + a.getValue(x) + " -> " + b.getValue(y));
+                }
+
+                // Fusione delle due liste di figli, ordinate per impronta:
+                // restano solo i figli senza un gemello identico dall'altra parte.
+                int i = a.firstChild(x), iEnd = a.endChild(x);
+                int j = b.firstChild(y), jEnd = b.endChild(y);
+                int[] restA = new int[iEnd - i], restB = new int[jEnd - j];
+                int na = 0, nb = 0;
+                while (i < iEnd || j < jEnd) {
+                    long pa = i < iEnd ? a.getFingerprint(a.child(i)) : 0;
+                    long pb = j < jEnd ? b.getFingerprint(b.child(j)) : 0;
+                    if (i < iEnd && j < jEnd && pa == pb) {
+                        i++;
+                        j++;
+                    } else if (j == jEnd || (i < iEnd && pa < pb)) {
+                        restA[na++] = a.child(i++);
+                    } else {
+                        restB[nb++] = b.child(j++);
+                    }
+                }
+
+                // Accoppiamento per valore: chiavi (valore << 32 | posizione) ordinate.
+                long[] keysA = sortedByValue(a, restA, na);
+                long[] keysB = sortedByValue(b, restB, nb);
+                int[] leftA = new int[na], leftB = new int[nb];
+                int la = 0, lb = 0, p = 0, q = 0;
+                int pairs = 0;
+                int[] pairA = new int[Math.min(na, nb)], pairB = new int[Math.min(na, nb)];
+                while (p < na || q < nb) {
+                    int va = p < na ? (int) (keysA[p] >> 32) : 0;
+                    int vb = q < nb ? (int) (keysB[q] >> 32) : 0;
+                    if (p < na && q < nb && va == vb) {
+                        pairA[pairs] = restA[(int) keysA[p++]];
+                        pairB[pairs++] = restB[(int) keysB[q++]];
+                    } else if (q == nb || (p < na && va < vb)) {
+                        leftA[la++] = restA[(int) keysA[p++]];
+                    } else {
+                        leftB[lb++] = restB[(int) keysB[q++]];
+                    }
+                }
+                if (la == 1 && lb == 1) {
+                    // Un solo figlio diverso per parte: stesso nodo con valore cambiato.
+                    pairA = Arrays.copyOf(pairA, pairs + 1);
+                    pairB = Arrays.copyOf(pairB, pairs + 1);
+                    pairA[pairs] = leftA[0];
+                    pairB[pairs++] = leftB[0];
+                    la = lb = 0;
+                }
+
+                for (int k = 0; k < la; k++) {
+                    path[depth + 1] = a.getValue(leftA[k]);
+                    write("SOLO_PRIMO", depth + 1, " (" + a.subtreeSize(leftA[k]) + " nodi)");
+                }
+                for (int k = 0; k < lb; k++) {
+                    path[depth + 1] = b.getValue(leftB[k]);
+                    write("SOLO_SECONDO", depth + 1, " (" + b.subtreeSize(leftB[k]) + " nodi)");
+                }
+
+                if (top + 3 * pairs > stack.length) {
+                    stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + 3 * pairs));
+                }
+                for (int k = 0; k < pairs; k++) {
+                    stack[top++] = pairA[k];
+                    stack[top++] = pairB[k];
+                    stack[top++] = depth + 1;
+                }
+            }
+            out.flush();
+        }
+
+        /* Chiavi (valore << 32 | posizione in nodes) ordinate per valore. */
+        private static long[] sortedByValue(CompactTree tree, int[] nodes, int count) {
+            long[] keys = new long[count];
+            for (int k = 0; k < count; k++) {
+                keys[k] = ((long) tree.getValue(nodes[k]) << 32) | k;
+            }
+            Arrays.sort(keys);
+            return keys;
+        }
+
+        /* Scrive una riga di differenza con il percorso path[0..depth]. */
+        private void write(String kind, int depth, String detail) throws IOException {
+            out.write(kind);
+            out.write(' ');
+            for (int k = 0; k <= depth; k++) {
+                if (k > 0) {
+                    out.write('/');
+                }
+                out.write(Integer.toString(path[k]));
+            }
+            out.write(detail);
+            out.write('\n');
+            entries++;
+        }
+    }
+
+
+
+    /* Coda circolare di interi, senza boxing; la capacità raddoppia quando è piena. */
+    private static class IntQueue {
+        private int[] items;
+        private int head, size;
+
+        public IntQueue(int capacity) {
+            items = new int[Math.max(2, capacity)];
+        }
+
+        public void add(int item) {
+            if (size == items.length) {
+                int[] larger = new int[items.length * 2];
+                for (int i = 0; i < size; i++) {
+                    larger[i] = items[(head + i) % items.length];
+                }
+                items = larger;
+                head = 0;
+            }
+            items[(head + size) % items.length] = item;
+            size++;
+        }
+
+        public int poll() {
+            int item = items[head];
+            head = (head + 1) % items.length;
+            size--;
+            return item;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+
+
+    /**
+     * Mappa intero -> intero ad indirizzamento aperto, senza boxing.
+     * Usata per associare il valore letto dal file all'indice del nodo.
+     */
+    private static class IntIntMap {
+        private int[] keys;
+        private int[] vals;
+        private boolean[] used;
+        private int size;
+
+        public IntIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+            keys = new int[capacity];
+            vals = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        private int slot(int key) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /* Ritorna il valore associato alla chiave, o -1 se assente. */
+        public int get(int key) {
+            int i = slot(key);
+            return used[i] ? vals[i] : -1;
+        }
+
+        public void put(int key, int value) {
+            int i = slot(key);
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = key;
+                if (++size * 2 > keys.length) {
+                    resize();
+                    i = slot(key);
+                }
+            }
+            vals[i] = value;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys, oldVals = vals;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            vals = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int j = slot(oldKeys[i]);
+                    used[j] = true;
+                    keys[j] = oldKeys[i];
+                    vals[j] = oldVals[i];
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * Destinazione dei nodi letti dai file: permette di costruire
+     * lo stesso albero sia con Tree (nodi collegati) sia con CompactTree.
+     * I nodi sono identificati dall'indice restituito da addNode().
+     */
+    private interface TreeBuilder<T> {
+        int addNode(int value);
+        void addChild(int parent, int child);
+        T build(int root);
+
+        /* Segnala che il sottoalbero del nodo è completo (usato dalle liste annidate). */
+        default void closeNode(int node) {
+        }
+    }
+
+
+
+    /* Funzione di mescolamento a 64 bit (finalizzatore di SplitMix64). */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Impronta canonica di un nodo: combina il valore con le prime count
+     * impronte dei figli, già ordinate. Comune a Tree e CompactTree.
+     */
+    private static long combine(int value, long[] sortedPrints, int count) {
+        long h = mix(value + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < count; i++) {
+            h = mix(h * 31 + sortedPrints[i]);
+        }
+        return mix(h + count);
+    }
+
+
+
     /**
      * Costruisce il primo albero a partire dal file
      * contenente la rappresentazione in forma di coppie padre-figlio.
+     * I valori letti vengono associati agli indici dei nodi tramite IntIntMap.
+     * La radice è l'unico nodo senza padre, indipendentemente dall'ordine delle
+     * righe. Come in PairsLoader, righe non valide, nodi con più padri (anche per
+     * righe ripetute), radici multiple e cicli vengono segnalati con
+     * IllegalArgumentException; le righe vuote vengono ignorate.
      */
-    public static Tree.Node buildPairsTree(Scanner scan) {
-        Map<Integer, Tree.Node> nodes = new HashMap<>();
-        Tree.Node root = null;          // Tiene traccia del nodo radice
+    public static <T> T buildPairsTree(Scanner scan, TreeBuilder<T> builder) {
+        IntIntMap nodes = new IntIntMap(1024);
+        int[] values = new int[1024];       // Valore di ogni nodo
+        int[] parentOf = new int[1024];     // Padre di ogni nodo, -1 se non ancora visto come figlio
+        Arrays.fill(parentOf, -1);
+        int size = 0;
+        int line = 0;
     
         while (scan.hasNextLine()) {
-            String[] parts = scan.nextLine().split(",");
-            int parentValue = Integer.parseInt(parts[0].trim());
-            int childValue = Integer.parseInt(parts[1].trim());
-    
-            Tree.Node parent = nodes.computeIfAbsent(parentValue, Tree.Node::new);
-            Tree.Node child = nodes.computeIfAbsent(childValue, Tree.Node::new);
+            String row = scan.nextLine();
+            line++;
+            if (row.isBlank()) {
+                continue;
+            }
+            String[] parts = row.split(",");
+            int parentValue, childValue;
+            try {
+                if (parts.length != 2) {
+                    throw new NumberFormatException();
+                }
+                parentValue = Integer.parseInt(parts[0].trim());
+                childValue = Integer.parseInt(parts[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Riga " + line + " del file delle coppie non valida: " + row);
+            }
     
-            parent.addChild(child);
+            int parent = nodes.get(parentValue);
+            if (parent == -1) {
+                parent = builder.addNode(parentValue);
+                nodes.put(parentValue, parent);
+            }
+            int child = nodes.get(childValue);
+            if (child == -1) {
+                child = builder.addNode(childValue);
+                nodes.put(childValue, child);
+            }
+            while (Math.max(parent, child) >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                int old = parentOf.length;
+                parentOf = Arrays.copyOf(parentOf, old * 2);
+                Arrays.fill(parentOf, old, parentOf.length, -1);
+            }
+            size = Math.max(size, Math.max(parent, child) + 1);
+            values[parent] = parentValue;
+            values[child] = childValue;
+            if (parentOf[child] != -1) {
+                throw new IllegalArgumentException("Il nodo " + childValue + " ha più di un padre.");
+            }
+            parentOf[child] = parent;
     
-            if (root == null) {
-                root = parent;
-            } else if (root.equals(child)) {
-                root = parent;
+            builder.addChild(parent, child);
+        }
+        if (size == 0) {
+            throw new IllegalArgumentException("Il file non contiene coppie padre-figlio.");
+        }
+
+        // Grado entrante: esattamente un nodo è privo di padre.
+        int root = -1;
+        for (int u = 0; u < size; u++) {
+            if (parentOf[u] == -1) {
+                if (root != -1) {
+                    throw new IllegalArgumentException("Radici multiple: " + values[root] + " e " + values[u] + ".");
+                }
+                root = u;
+            }
+        }
+        if (root == -1) {
+            throw new IllegalArgumentException("Nessuna radice: le coppie formano un ciclo.");
+        }
+
+        // Con un solo padre per nodo, ogni nodo deve risalire alla radice: altrimenti sta su un ciclo.
+        byte[] state = new byte[size];      // 0 da visitare, 1 sul cammino corrente, 2 raggiunge la radice
+        state[root] = 2;
+        for (int u = 0; u < size; u++) {
+            int v = u;
+            while (state[v] == 0) {
+                state[v] = 1;
+                v = parentOf[v];
+            }
+            if (state[v] == 1) {
+                throw new IllegalArgumentException("Le coppie contengono un ciclo non raggiungibile dalla radice.");
+            }
+            for (v = u; state[v] == 1; v = parentOf[v]) {
+                state[v] = 2;
             }
         }
-        return root;
+        return builder.build(root);
     }
 
     
 
+    /**
+     * Caricamento parallelo del file con le coppie padre-figlio in un CompactTree.
+     * Il file viene mappato in memoria e diviso in blocchi allineati alle righe;
+     * ogni blocco viene analizzato direttamente dai byte in array di interi.
+     * I valori distinti vengono ordinati (Arrays.parallelSort) e sostituiti dal
+     * loro indice, la radice è l'unico nodo con grado entrante nullo.
+     * Input malformati (righe non valide, nodi con più padri, radici multiple,
+     * cicli) vengono segnalati con IllegalArgumentException.
+     */
+    private static class PairsLoader {
+        private static final long CHUNK_BYTES = 64L << 20;     // Dimensione massima di un blocco
+        private static final int MAX_LINE = 4096;               // Lunghezza massima di una riga
+
+        /* Coppie lette da un singolo blocco del file. */
+        private static class Chunk {
+            int count;
+            int[] parents = new int[1024];
+            int[] children = new int[1024];
+
+            void add(int parent, int child) {
+                if (count == parents.length) {
+                    parents = Arrays.copyOf(parents, count * 2);
+                    children = Arrays.copyOf(children, count * 2);
+                }
+                parents[count] = parent;
+                children[count] = child;
+                count++;
+            }
+        }
+
+
+        public static CompactTree load(String fileName, ForkJoinPool pool) throws IOException {
+            List<Chunk> chunks = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                long size = channel.size();
+                int parts = (int) Math.max(pool.getParallelism() * 4L, (size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+                long step = Math.max(1, (size + parts - 1) / parts);
+
+                List<Callable<Chunk>> tasks = new ArrayList<>();
+                for (long start = 0; start < size; start += step) {
+                    long from = start, to = Math.min(size, start + step);
+                    tasks.add(() -> parse(channel, from, to, size));
+                }
+                for (Future<Chunk> future : pool.invokeAll(tasks)) {
+                    chunks.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Lettura interrotta", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IllegalArgumentException) {
+                    throw (IllegalArgumentException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+
+            // Unione dei blocchi.
+            int total = 0;
+            for (Chunk chunk : chunks) {
+                total += chunk.count;
+            }
+            final int edges = total;
+            if (edges == 0) {
+                throw new IllegalArgumentException("Il file non contiene coppie padre-figlio.");
+            }
+            int[] parents = new int[edges];
+            int[] children = new int[edges];
+            int offset = 0;
+            for (Chunk chunk : chunks) {
+                System.arraycopy(chunk.parents, 0, parents, offset, chunk.count);
+                System.arraycopy(chunk.children, 0, children, offset, chunk.count);
+                offset += chunk.count;
+            }
+            chunks.clear();
+
+            // Valori distinti ordinati: l'indice di un nodo è la posizione del suo valore.
+            int[] distinct = new int[2 * edges];
+            System.arraycopy(parents, 0, distinct, 0, edges);
+            System.arraycopy(children, 0, distinct, edges, edges);
+            Arrays.parallelSort(distinct);
+            int n = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (n == 0 || distinct[i] != distinct[n - 1]) {
+                    distinct[n++] = distinct[i];
+                }
+            }
+            final int[] keys = Arrays.copyOf(distinct, n);
+            pool.submit(() -> IntStream.range(0, edges).parallel().forEach(e -> {
+                parents[e] = Arrays.binarySearch(keys, parents[e]);
+                children[e] = Arrays.binarySearch(keys, children[e]);
+            })).join();
+
+            // Grado entrante: ogni nodo ha al più un padre, esattamente uno ne è privo.
+            byte[] inDegree = new byte[n];
+            for (int e = 0; e < edges; e++) {
+                if (inDegree[children[e]]++ != 0) {
+                    throw new IllegalArgumentException("Il nodo " + keys[children[e]] + " ha più di un padre.");
+                }
+            }
+            int root = -1;
+            for (int u = 0; u < n; u++) {
+                if (inDegree[u] == 0) {
+                    if (root != -1) {
+                        throw new IllegalArgumentException("Radici multiple: " + keys[root] + " e " + keys[u] + ".");
+                    }
+                    root = u;
+                }
+            }
+            if (root == -1) {
+                throw new IllegalArgumentException("Nessuna radice: le coppie formano un ciclo.");
+            }
+
+            CompactTree.Builder builder = new CompactTree.Builder(n);
+            for (int u = 0; u < n; u++) {
+                builder.addNode(keys[u]);
+            }
+            for (int e = 0; e < edges; e++) {
+                builder.addChild(parents[e], children[e]);
+            }
+            CompactTree tree = builder.build(root);
+
+            // Con un solo padre per nodo, i nodi non raggiungibili dalla radice stanno su un ciclo.
+            if (tree.subtreeSize(root) != n) {
+                throw new IllegalArgumentException("Le coppie contengono un ciclo non raggiungibile dalla radice.");
+            }
+            return tree;
+        }
+
+        /**
+         * Analizza le righe che iniziano nell'intervallo [from, to) del file.
+         * Una riga iniziata prima di from appartiene al blocco precedente;
+         * l'ultima riga può proseguire oltre to.
+         */
+        private static Chunk parse(FileChannel channel, long from, long to, long size) throws IOException {
+            long mapFrom = Math.max(0, from - 1);
+            long mapTo = Math.min(size, to + MAX_LINE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapFrom, mapTo - mapFrom);
+            int end = (int) (to - mapFrom);
+            int limit = buffer.limit();
+            int i = (int) (from - mapFrom);
+
+            // Salta la riga incompleta iniziata nel blocco precedente.
+            if (from > 0 && buffer.get(i - 1) != '\n') {
+                while (i < limit && buffer.get(i) != '\n') {
+                    i++;
+                }
+                i++;
+            }
+
+            Chunk chunk = new Chunk();
+            int[] number = new int[2];
+            while (i < end) {
+                int lineStart = i;
+                int fields = 0;
+                while (fields < 2) {
+                    while (i < limit && (buffer.get(i) == ' ' || buffer.get(i) == '\t')) {
+                        i++;
+                    }
+                    if (fields == 0 && (i == limit || buffer.get(i) == '\n' || buffer.get(i) == '\r')) {
+                        break;  // Riga vuota
+                    }
+                    boolean negative = i < limit && buffer.get(i) == '-';
+                    if (negative) {
+                        i++;
+                    }
+                    int digits = 0;
+                    long value = 0;
+                    while (i < limit && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+                        value = value * 10 + (buffer.get(i++) - '0');
+                        digits++;
+                    }
+                    if (digits == 0 || digits > 10 || value > (negative ? 1L << 31 : Integer.MAX_VALUE)) {
+                        throw malformed(mapFrom + lineStart);
+                    }
+                    number[fields++] = (int) (negative ? -value : value);
+                    while (i < limit && (buffer.get(i) == ' ' || buffer.get(i) == '\t')) {
+                        i++;
+                    }
+                    if (fields == 1) {
+                        if (i == limit || buffer.get(i) != ',') {
+                            throw malformed(mapFrom + lineStart);
+                        }
+                        i++;
+                    }
+                }
+                if (i < limit && buffer.get(i) == '\r') {
+                    i++;
+                }
+                if (i < limit && buffer.get(i) != '\n') {
+                    throw malformed(mapFrom + lineStart);
+                }
+                if (i == limit && mapTo < size) {
+                    throw new IllegalArgumentException("Riga più lunga di " + MAX_LINE + " byte alla posizione " + (mapFrom + lineStart) + ".");
+                }
+                i++;
+                if (fields == 2) {
+                    chunk.add(number[0], number[1]);
+                }
+            }
+            return chunk;
+        }
+
+        private static IllegalArgumentException malformed(long position) {
+            return new IllegalArgumentException("Riga non valida alla posizione " + position + " del file delle coppie.");
+        }
+    }
+
+
+
     /**
      * Costruisce il secondo albero a partire dal file
      * contenente la rappresentazione in forma di liste annidate.
+     * Il file viene letto a blocchi di byte in un'unica passata, senza ricorsione
+     * e senza stringhe intermedie: una pila esplicita contiene le liste aperte.
+     * Valori con più cifre e spazi vengono gestiti durante la lettura.
+     * Una lista senza valore con un solo figlio (es. la coppia di parentesi
+     * esterna in "[[1, [2]]]") viene trattata come contenitore trasparente.
+     * Ogni sottoalbero chiuso viene segnalato al builder con closeNode().
+     */
+    public static <T> T buildNestedTree(InputStream in, TreeBuilder<T> builder) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int[] open = new int[64];       // Nodo di ogni lista aperta (-1 se senza valore)
+        int[] inner = new int[64];      // Unico figlio di una lista senza valore (-1 se assente)
+        int depth = 0;
+        int root = -1;
+
+        int value = 0;
+        boolean inNumber = false;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte c = buffer[i];
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    inNumber = true;
+                    continue;
+                }
+                if (inNumber) {
+                    // Fine del numero: diventa il valore della lista corrente.
+                    if (depth == 0 || open[depth - 1] != -1 || inner[depth - 1] != -1) {
+                        throw new IllegalArgumentException("Valore " + value + " fuori posizione nella lista annidata.");
+                    }
+                    open[depth - 1] = builder.addNode(value);
+                    value = 0;
+                    inNumber = false;
+                }
+
+                if (c == '[') {
+                    if (depth == open.length) {
+                        open = Arrays.copyOf(open, depth * 2);
+                        inner = Arrays.copyOf(inner, depth * 2);
+                    }
+                    open[depth] = -1;
+                    inner[depth] = -1;
+                    depth++;
+                } else if (c == ']') {
+                    if (depth == 0) {
+                        throw new IllegalArgumentException("Parentesi ']' senza corrispondente '['.");
+                    }
+                    depth--;
+                    int closed = open[depth] != -1 ? open[depth] : inner[depth];
+                    if (closed == -1) {
+                        continue;   // Lista vuota: viene ignorata
+                    }
+                    if (open[depth] != -1) {
+                        builder.closeNode(closed);
+                    }
+
+                    if (depth == 0) {
+                        root = closed;
+                    } else if (open[depth - 1] != -1) {
+                        builder.addChild(open[depth - 1], closed);
+                    } else if (inner[depth - 1] == -1) {
+                        inner[depth - 1] = closed;
+                    } else {
+                        throw new IllegalArgumentException("Lista senza valore con più di un figlio.");
+                    }
+                } else if (c != ',' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    throw new IllegalArgumentException("Carattere non valido nella lista annidata: '" + (char) c + "'.");
+                }
+            }
+        }
+
+        if (depth != 0 || inNumber) {
+            throw new IllegalArgumentException("Lista annidata non chiusa.");
+        }
+        if (root == -1) {
+            throw new IllegalArgumentException("Lista annidata vuota.");
+        }
+        return builder.build(root);
+    }
+
+
+
+    /**
+     * Confronto di un albero di riferimento con molti file candidati.
+     * Il riferimento viene costruito una sola volta, insieme a un indice
+     * (impronte ordinate -> nodo) di tutti i suoi sottoalberi, condiviso in sola
+     * lettura dai thread. I candidati vengono elaborati da un pool di thread
+     * di dimensione fissa; per ogni candidato, i sottoalberi massimali la cui
+     * impronta compare nell'indice vengono verificati contro il nodo del
+     * riferimento senza essere ulteriormente visitati.
+     * Il rapporto riporta una riga per file, nell'ordine di input.
      */
-    public static Tree.Node buildNestedTree(Scanner scan) {
-        if (scan.hasNext("\\[")) {
-            scan.next("\\[");
+    private static class BatchComparison {
+        private final CompactTree reference;
+        private final long[] prints;    // Impronte dei sottoalberi del riferimento, ordinate
+        private final int[] nodes;      // Nodo del riferimento corrispondente a ogni impronta
+
+        public BatchComparison(CompactTree reference) {
+            this.reference = reference;
+            int n = reference.size();
+            int[] order = new int[n];
+            for (int u = 0; u < n; u++) {
+                order[u] = u;
+            }
+            long[] all = new long[n];
+            for (int u = 0; u < n; u++) {
+                all[u] = reference.getFingerprint(u);
+            }
+            CompactTree.sortByPrint(order, 0, n, all, new int[n]);
+            this.nodes = order;
+            this.prints = new long[n];
+            for (int i = 0; i < n; i++) {
+                prints[i] = all[order[i]];
+            }
         }
 
-        String s = "";
-        while (scan.hasNext("\\d")) {
-            s += scan.next("\\d");
+        /* Nodo del riferimento con l'impronta data, o -1 se assente. */
+        private int lookup(long print) {
+            int i = Arrays.binarySearch(prints, print);
+            return i >= 0 ? nodes[i] : -1;
         }
-        int value = Integer.parseInt(s);
-        Tree.Node root = new Tree.Node(value);
 
-        while (scan.hasNext()) {
-            char c = scan.findWithinHorizon(".", 1).charAt(0);
-            if (c == '[') {
-                root.addChild(buildNestedTree(scan));    // Chiamata ricorsiva sul sottoalbero
-            } else if (c == ']') {
-                break;
+        /* Riga del rapporto per un singolo candidato. */
+        public String compare(String fileName) {
+            try {
+                CompactTree candidate = readCompactTree(fileName);
+                int root = candidate.getRoot();
+                if (candidate.getFingerprint(root) == reference.getFingerprint(reference.getRoot())
+                        && candidate.equals(reference)) {
+                    return fileName + ": UGUALE";
+                }
+
+                // Sottoalberi massimali del candidato già presenti nel riferimento.
+                long shared = 0;
+                int[] stack = new int[64];
+                int top = 0;
+                stack[top++] = root;
+                while (top > 0) {
+                    int u = stack[--top];
+                    int match = lookup(candidate.getFingerprint(u));
+                    if (match != -1 && candidate.sameSubtree(reference, u, match, null)) {
+                        shared += candidate.subtreeSize(u);
+                        continue;
+                    }
+                    int from = candidate.firstChild(u), to = candidate.endChild(u);
+                    if (top + (to - from) > stack.length) {
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + (to - from)));
+                    }
+                    for (int j = from; j < to; j++) {
+                        stack[top++] = candidate.child(j);
+                    }
+                }
+                return fileName + ": DIVERSO (nodi in comune con il riferimento: "
+                        + shared + "/" + candidate.subtreeSize(root) + ")";
+            } catch (IOException | IllegalArgumentException e) {
+                return fileName + ": ERRORE " + e.getMessage();
             }
         }
-        return root;
+
+        /**
+         * Elabora i candidati con threads thread e scrive il rapporto in ordine.
+         * Al più 2*threads file sono in lavorazione contemporaneamente.
+         */
+        public void run(List<String> candidates, int threads, PrintStream out) throws InterruptedException {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                Deque<Future<String>> pending = new ArrayDeque<>();
+                for (String fileName : candidates) {
+                    pending.add(pool.submit(() -> compare(fileName)));
+                    if (pending.size() >= 2 * threads) {
+                        out.println(result(pending.poll()));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    out.println(result(pending.poll()));
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        private static String result(Future<String> future) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return "ERRORE " + e.getCause();
+            }
+        }
+    }
+
+
+
+    /* Legge il file con le coppie padre-figlio usando il builder indicato. */
+    private static <T> T readPairsTree(String fileName, TreeBuilder<T> builder) throws FileNotFoundException {
+        Scanner scan = new Scanner(new File(fileName));
+        T tree = buildPairsTree(scan, builder);
+        scan.close();
+        return tree;
+    }
+
+    /* Legge il file con le liste annidate usando il builder indicato. */
+    private static <T> T readNestedTree(String fileName, TreeBuilder<T> builder) throws IOException {
+        InputStream in = new FileInputStream(fileName);
+        try {
+            return buildNestedTree(in, builder);
+        } finally {
+            in.close();
+        }
+    }
+
+
+
+    /**
+     * Legge un CompactTree riconoscendo il formato dal primo carattere
+     * significativo: '[' per le liste annidate, altrimenti coppie padre-figlio.
+     */
+    private static CompactTree readCompactTree(String fileName) throws IOException {
+        int first;
+        try (InputStream in = new FileInputStream(fileName)) {
+            do {
+                first = in.read();
+            } while (first == ' ' || first == '\t' || first == '\n' || first == '\r');
+        }
+        if (first == '[') {
+            return readNestedTree(fileName, new CompactTree.Builder());
+        }
+        return PairsLoader.load(fileName, ForkJoinPool.commonPool());
     }
 
 
@@ -238,43 +1607,110 @@ public class Esercizio1 {
      * Nella lettura dei file, si assume che il primo file contenga
      * l'albero in forma di coppie padre-figlio e che il secondo
      * contenga l'albero in forma di lista annidata.
+     * Con l'opzione -compact gli alberi vengono costruiti come CompactTree
+     * (il file delle coppie viene letto in parallelo da PairsLoader);
+     * con -parallel vengono anche confrontati in parallelo (ForkJoinPool);
+     * con -diff <file> le differenze strutturali vengono scritte sul file;
+     * con -dump <file> i due alberi vengono stampati per livelli sul file,
+     * eventualmente limitati da -depth <livelli> e -width <nodi per livello>.
+     * Con -batch il primo file è il riferimento e i successivi sono candidati
+     * (in uno qualsiasi dei due formati), elaborati con -threads <n> thread.
      */
     public static void main(String args[]) {
-        if (args.length != 2) {
+        boolean compact = false, parallel = false, batch = false;
+        String diffFile = null, dumpFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxDepth = Integer.MAX_VALUE, maxWidth = Integer.MAX_VALUE;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-compact")) {
+                compact = true;
+            } else if (args[i].equals("-parallel")) {
+                compact = parallel = true;
+            } else if (args[i].equals("-diff") && i + 1 < args.length) {
+                compact = true;
+                diffFile = args[++i];
+            } else if (args[i].equals("-dump") && i + 1 < args.length) {
+                compact = true;
+                dumpFile = args[++i];
+            } else if (args[i].equals("-depth") && i + 1 < args.length) {
+                maxDepth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-width") && i + 1 < args.length) {
+                maxWidth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-batch")) {
+                batch = true;
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (batch && files.size() < 2) {
+            System.err.println("Necessari come parametri il file di riferimento e almeno un file candidato.");
+            return;
+        }
+        if (!batch && files.size() != 2) {
             System.err.println("Necessari come parametri i nomi dei due file contententi i due alberi.");
             return;
         }
         Locale.setDefault(Locale.US);
         
         try {
-            // Legge il primo file (coppie padre-figlio).
-            File file1 = new File(args[0]);
-            Scanner scan1 = new Scanner(file1);
-            
-            pairsTree = new Tree(buildPairsTree(scan1));
-            scan1.close();
-        
-            // Legge il secondo file (liste annidate).
-            File file2 = new File(args[1]);
-            Scanner scan2 = new Scanner(file2);
-            String line = scan2.nextLine();
-            scan2.close();
-
-            line = line.replaceAll(" ", "");   // Rimozione spazi
-            Scanner lineScan = new Scanner(line);
-            lineScan.useDelimiter("");
-            nestedTree = new Tree(buildNestedTree(lineScan));
-            lineScan.close();
+            if (batch) {
+                // Il riferimento viene costruito una volta sola, i candidati in parallelo.
+                BatchComparison comparison = new BatchComparison(readCompactTree(files.get(0)));
+                comparison.run(files.subList(1, files.size()), Math.max(1, threads), System.out);
+                return;
+            }
+
+
+            boolean equal;
+            CompactTree compactPairs = null, compactNested = null;
+            if (compact) {
+                compactPairs = PairsLoader.load(files.get(0), ForkJoinPool.commonPool());
+                compactNested = readNestedTree(files.get(1), new CompactTree.Builder());
+                equal = parallel ? compactPairs.parallelEquals(compactNested, ForkJoinPool.commonPool())
+                                 : compactPairs.equals(compactNested);
+            } else {
+                // Legge il primo file (coppie padre-figlio) e il secondo (liste annidate).
+                pairsTree = readPairsTree(files.get(0), new Tree.Builder());
+                nestedTree = readNestedTree(files.get(1), new Tree.Builder());
+                equal = pairsTree.equals(nestedTree);
+            }
 
             // Confronto tra gli alberi.
-            if(pairsTree.equals(nestedTree)) {
+            if(equal) {
                 System.out.println("I due alberi sono UGUALI.");
             } else {
                 System.out.println("I due alberi sono DIVERSI.");
             }
+
+            if (diffFile != null) {
+                // Scrive in streaming le differenze strutturali sul file indicato.
+                try (Writer out = new BufferedWriter(new FileWriter(diffFile), 1 << 16)) {
+                    long entries = TreeDiff.diff(compactPairs, compactNested, out);
+                    System.out.println(entries + " differenze scritte in " + diffFile + ".");
+                }
+            }
+
+            if (dumpFile != null) {
+                // Stampa per livelli dei due alberi, separati da una riga vuota.
+                try (Writer out = new BufferedWriter(new FileWriter(dumpFile), 1 << 16)) {
+                    compactPairs.dump(out, maxDepth, maxWidth);
+                    out.write('\n');
+                    compactNested.dump(out, maxDepth, maxWidth);
+                }
+            }
         } catch(FileNotFoundException e) {
             System.err.println("FILE NOT FOUND: " + e);
             e.printStackTrace();
+        } catch(IOException e) {
+            System.err.println("IO ERROR: " + e);
+            e.printStackTrace();
+        } catch(IllegalArgumentException e) {
+            System.err.println("INPUT NON VALIDO: " + e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,30 @@
  *   finali si trovano nell'ultimo set, restituita dal metodo come output.
  *   L'utilizzo di Set è funzionale per evitare la memorizzazione di
  *   decodifiche duplicate.
+ * - countDecodings() calcola solo il numero di decodifiche distinte, senza
+ *   costruirle, con una programmazione dinamica sulle posizioni della stringa
+ *   (opzione -count).
+ * - Codebook memorizza il cifrario come trie binario (codici letti da sinistra e
+ *   rovesciati) e trova tutti i codici che iniziano o terminano in una posizione
+ *   senza creare sottostringhe. Può essere letto da file (opzione -codes).
+ * - Decoding rappresenta una decodifica parziale come lista persistente, così le
+ *   decodifiche con lo stesso prefisso lo condividono invece di copiarlo.
+ * - DecodingIterator produce le decodifiche una alla volta, già in ordine alfabetico,
+ *   con una visita in profondità delle suddivisioni: main le scrive direttamente
+ *   sull'output, senza memorizzarle né ordinarle.
+ * - DecodingIndex calcola una volta i conteggi delle decodifiche di ogni suffisso e
+ *   permette di ottenere la k-esima decodifica in ordine alfabetico, e la posizione
+ *   di una decodifica, senza enumerare le precedenti (opzione -page).
+ * - Decoder decodifica senza usare i campi statici, quindi da più thread insieme:
+ *   l'opzione -batch distribuisce le righe di un file tra un pool di thread, che
+ *   condividono una cache limitata (LruCache) dei conteggi per suffisso e dei
+ *   risultati per riga. I risultati vengono stampati nell'ordine delle righe.
+ * - IncrementalDecoder riceve le cifre una alla volta e aggiorna il conteggio in
+ *   O(maxLength) tenendo solo gli ultimi maxLength+1 conteggi (opzione -stream);
+ *   le decodifiche vengono elencate in modo pigro solo quando richieste.
+ * - PackedDigits memorizza le cifre in un long[], un bit per cifra, leggendole dal
+ *   file mappato in memoria; il Codebook confronta i codici su una finestra di bit
+ *   estratta con shift e maschere. L'opzione -count usa questa rappresentazione.
  */
 
 /**
@@ -35,29 +59,746 @@
  * In aggiunta, viene effettuato un ordinamento sulle decodifiche trovate,
  * con il metodo Collections.sort(). Tale metodo ordina i k elementi della
  * lista con costo k*log(k), che rimane di ordine inferiore rispetto a O(n^2).
+ *
+ * Il metodo countDecodings() somma, per ogni posizione i, il numero di decodifiche
+ * delle posizioni i-j da cui parte un codice valido: costo O(n*maxLength) e memoria
+ * O(maxLength), perché servono solo gli ultimi maxLength+1 conteggi.
  */
 
 // java Esercizio2 stringa.txt
+// java Esercizio2 -count stringa.txt
+// java Esercizio2 -count -modulus 1000000007 stringa.txt
+// java Esercizio2 -codes cifrario.txt stringa.txt
+// java Esercizio2 -page 100 20 stringa.txt
+// java Esercizio2 -threads 8 -batch righe.txt
+// java Esercizio2 -stream < cifre.txt
 
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Esercizio2 {
     static Map<String, String> encodings;   // Cifrario contenente le codifiche dei caratteri
+    static Codebook codebook;               // Lo stesso cifrario, come trie per la ricerca dei codici
     static String s = "";                   // Stringa da decodificare        
     static int maxLength;                   // Lunghezza massima di una stringa di cifre decodificabile
 
 
+    /**
+     * Cifrario memorizzato come due trie binari (cifre '0' e '1'):
+     * uno con i codici letti da sinistra, per trovare i codici che iniziano
+     * in una posizione, e uno con i codici rovesciati, per trovare quelli che
+     * vi terminano. Ogni ricerca scorre le cifre una volta sola, al più
+     * maxLength passi, senza creare sottostringhe.
+     * I caratteri sono stringhe qualsiasi, identificate da un indice.
+     */
+    static class Codebook {
+        private int[] forward = new int[] {-1, -1};     // forward[2*nodo + cifra] = figlio, -1 se assente
+        private int[] backward = new int[] {-1, -1};    // Stesso formato, codici rovesciati
+        private int[] forwardLetter = new int[] {-1};   // Carattere del codice che termina nel nodo
+        private int[] backwardLetter = new int[] {-1};
+        private int forwardSize = 1, backwardSize = 1;
+        private final List<String> letters = new ArrayList<>();
+        private final Map<String, Integer> letterIds = new HashMap<>();
+        private final Map<String, String> codes = new HashMap<>();
+        private int maxLength;
+        private boolean uniqueCodes = true;     // Vero se ogni carattere ha un solo codice
+        private boolean prefixFree;             // Nessun carattere è prefisso di un altro (con ranks)
+        private int[] ranks;                    // Ordine alfabetico dei caratteri (vedi letterRanks())
+
+        /* Costruisce il cifrario da una mappa codice -> carattere. */
+        public static Codebook of(Map<String, String> encodings) {
+            Codebook codebook = new Codebook();
+            for (Map.Entry<String, String> entry : encodings.entrySet()) {
+                codebook.add(entry.getKey(), entry.getValue());
+            }
+            return codebook;
+        }
+
+        /**
+         * Legge il cifrario da file: una coppia "codice carattere" per riga,
+         * separati da spazi. Righe vuote e righe che iniziano con '#' vengono ignorate.
+         */
+        public static Codebook load(String fileName) throws FileNotFoundException {
+            Codebook codebook = new Codebook();
+            Scanner scan = new Scanner(new File(fileName));
+            int line = 0;
+            while (scan.hasNextLine()) {
+                String row = scan.nextLine().trim();
+                line++;
+                if (row.isEmpty() || row.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = row.split("\\s+");
+                if (parts.length != 2) {
+                    scan.close();
+                    throw new IllegalArgumentException("Riga " + line + " del cifrario non valida: " + row);
+                }
+                codebook.add(parts[0], parts[1]);
+            }
+            scan.close();
+            return codebook;
+        }
+
+        public void add(String code, String letter) {
+            if (code.isEmpty() || !code.matches("[01]+")) {
+                throw new IllegalArgumentException("Codice non binario: " + code);
+            }
+            String previous = codes.putIfAbsent(code, letter);
+            if (previous != null) {
+                if (!previous.equals(letter)) {
+                    throw new IllegalArgumentException("Codice " + code + " associato sia a " + previous + " sia a " + letter);
+                }
+                return;
+            }
+
+            Integer id = letterIds.get(letter);
+            if (id == null) {
+                id = letters.size();
+                letters.add(letter);
+                letterIds.put(letter, id);
+            } else {
+                uniqueCodes = false;
+            }
+
+            int node = 0;
+            for (int k = 0; k < code.length(); k++) {
+                node = forwardChild(node, code.charAt(k) - '0');
+            }
+            forwardLetter[node] = id;
+            node = 0;
+            for (int k = code.length() - 1; k >= 0; k--) {
+                node = backwardChild(node, code.charAt(k) - '0');
+            }
+            backwardLetter[node] = id;
+            maxLength = Math.max(maxLength, code.length());
+        }
+
+        private int forwardChild(int node, int digit) {
+            if (forward[2 * node + digit] == -1) {
+                if (forwardSize == forwardLetter.length) {
+                    forward = grow(forward, 2 * forwardSize * 2);
+                    forwardLetter = grow(forwardLetter, forwardSize * 2);
+                }
+                forward[2 * node + digit] = forwardSize++;
+            }
+            return forward[2 * node + digit];
+        }
+
+        private int backwardChild(int node, int digit) {
+            if (backward[2 * node + digit] == -1) {
+                if (backwardSize == backwardLetter.length) {
+                    backward = grow(backward, 2 * backwardSize * 2);
+                    backwardLetter = grow(backwardLetter, backwardSize * 2);
+                }
+                backward[2 * node + digit] = backwardSize++;
+            }
+            return backward[2 * node + digit];
+        }
+
+        private static int[] grow(int[] array, int length) {
+            int[] larger = Arrays.copyOf(array, length);
+            Arrays.fill(larger, array.length, length, -1);
+            return larger;
+        }
+
+        /**
+         * Trova i codici che terminano in s[end-1], cioè le sottostringhe
+         * s[end-length..end) presenti nel cifrario. Per ognuno scrive in
+         * lengths e letters lunghezza e carattere; ritorna il numero di codici.
+         * I due array devono avere almeno maxLength() elementi.
+         */
+        public int matchEndingAt(CharSequence digits, int end, int[] lengths, int[] letters) {
+            int found = 0;
+            int node = 0;
+            for (int k = end - 1; k >= 0 && end - k <= maxLength; k--) {
+                int digit = digits.charAt(k) - '0';
+                if (digit != 0 && digit != 1) {
+                    break;
+                }
+                node = backward[2 * node + digit];
+                if (node == -1) {
+                    break;
+                }
+                if (backwardLetter[node] != -1) {
+                    lengths[found] = end - k;
+                    letters[found++] = backwardLetter[node];
+                }
+            }
+            return found;
+        }
+
+        /* Come matchEndingAt(), per i codici s[start..start+length). */
+        public int matchStartingAt(CharSequence digits, int start, int[] lengths, int[] letters) {
+            int found = 0;
+            int node = 0;
+            for (int k = start; k < digits.length() && k - start < maxLength; k++) {
+                int digit = digits.charAt(k) - '0';
+                if (digit != 0 && digit != 1) {
+                    break;
+                }
+                node = forward[2 * node + digit];
+                if (node == -1) {
+                    break;
+                }
+                if (forwardLetter[node] != -1) {
+                    lengths[found] = k - start + 1;
+                    letters[found++] = forwardLetter[node];
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Come matchEndingAt(), sulle cifre compresse: le ultime maxLength cifre
+         * vengono lette in un long con una sola finestra e il trie viene percorso
+         * estraendo un bit alla volta, senza allocare nulla.
+         */
+        public int matchEndingAt(PackedDigits digits, long end, int[] lengths, int[] letters) {
+            int limit = (int) Math.min(maxLength, end);
+            long window = limit > 0 && limit <= 64 ? digits.window(end - limit, limit) : 0;
+            int found = 0;
+            int node = 0;
+            for (int k = 0; k < limit; k++) {
+                int digit = limit <= 64 ? (int) (window >>> k) & 1 : digits.get(end - 1 - k);
+                node = backward[2 * node + digit];
+                if (node == -1) {
+                    break;
+                }
+                if (backwardLetter[node] != -1) {
+                    lengths[found] = k + 1;
+                    letters[found++] = backwardLetter[node];
+                }
+            }
+            return found;
+        }
+
+        /* Come matchStartingAt(), sulle cifre compresse. */
+        public int matchStartingAt(PackedDigits digits, long start, int[] lengths, int[] letters) {
+            int limit = (int) Math.min(maxLength, digits.length() - start);
+            long window = limit > 0 && limit <= 64 ? digits.window(start, limit) : 0;
+            int found = 0;
+            int node = 0;
+            for (int k = 0; k < limit; k++) {
+                int digit = limit <= 64 ? (int) (window >>> (limit - 1 - k)) & 1 : digits.get(start + k);
+                node = forward[2 * node + digit];
+                if (node == -1) {
+                    break;
+                }
+                if (forwardLetter[node] != -1) {
+                    lengths[found] = k + 1;
+                    letters[found++] = forwardLetter[node];
+                }
+            }
+            return found;
+        }
+
+        public String letter(int id) {
+            return letters.get(id);
+        }
+
+        public int letterCount() {
+            return letters.size();
+        }
+
+        public int maxLength() {
+            return maxLength;
+        }
+
+        /**
+         * Vero se suddivisioni diverse delle cifre danno sempre decodifiche diverse:
+         * ogni carattere ha un solo codice (la sequenza di caratteri determina i
+         * codici) e nessun carattere è prefisso di un altro (la stringa decodificata
+         * determina la sequenza di caratteri). Con caratteri di più lettere, ad
+         * esempio A, B e AB, la stessa stringa può venire da sequenze diverse.
+         */
+        public boolean hasUniqueCodes() {
+            return uniqueCodes && lettersPrefixFree();
+        }
+
+        /**
+         * Posizione di ogni carattere nell'ordine alfabetico dei caratteri
+         * (rank[id]), calcolata alla prima richiesta dopo ogni modifica.
+         * Nello stesso ordinamento si controlla se i caratteri sono liberi da
+         * prefissi: se un carattere è prefisso di altri, il primo di questi lo
+         * segue subito in ordine alfabetico, quindi basta confrontare i vicini.
+         */
+        public int[] letterRanks() {
+            if (ranks == null || ranks.length != letters.size()) {
+                Integer[] order = new Integer[letters.size()];
+                for (int id = 0; id < order.length; id++) {
+                    order[id] = id;
+                }
+                Arrays.sort(order, (a, b) -> letters.get(a).compareTo(letters.get(b)));
+                boolean free = true;
+                for (int r = 1; r < order.length && free; r++) {
+                    free = !letters.get(order[r]).startsWith(letters.get(order[r - 1]));
+                }
+                prefixFree = free;
+                int[] ranks = new int[order.length];
+                for (int r = 0; r < order.length; r++) {
+                    ranks[order[r]] = r;
+                }
+                this.ranks = ranks;
+            }
+            return ranks;
+        }
+
+        /**
+         * Vero se nessun carattere è prefisso di un altro: in questo caso
+         * l'ordine alfabetico delle decodifiche coincide con l'ordine
+         * lessicografico delle sequenze di caratteri.
+         */
+        public boolean lettersPrefixFree() {
+            letterRanks();
+            return prefixFree;
+        }
+
+        /* Copia del cifrario come mappa codice -> carattere. */
+        public Map<String, String> asMap() {
+            return new HashMap<>(codes);
+        }
+    }
+
+
+    /**
+     * Stringa di cifre binarie compressa in un long[], un bit per cifra: la cifra i
+     * è il bit 63-(i%64) della parola i/64, così una finestra di cifre consecutive
+     * si legge con uno o due accessi e qualche shift. Viene letta dal file mappato
+     * in memoria a blocchi, senza passare per una String (16 bit per cifra).
+     */
+    static final class PackedDigits {
+        private static final long CHUNK_BYTES = 1L << 30;  // Dimensione massima di un blocco mappato
+
+        private long[] bits;
+        private long length;
+
+        PackedDigits(long capacity) {
+            bits = new long[(int) Math.max(1, (capacity + 63) >>> 6)];
+        }
+
+        /**
+         * Legge le cifre della prima riga del file, ignorando spazi e '\r'.
+         * Qualsiasi altro carattere rende l'input non valido.
+         */
+        public static PackedDigits load(String fileName) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                long size = channel.size();
+                PackedDigits digits = new PackedDigits(size);
+                for (long from = 0; from < size; from += CHUNK_BYTES) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(CHUNK_BYTES, size - from));
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == '0' || b == '1') {
+                            digits.append(b - '0');
+                        } else if (b == '\n') {
+                            return digits;
+                        } else if (b != ' ' && b != '\r') {
+                            throw new IllegalArgumentException("Carattere non binario in posizione " + (from + buffer.position() - 1));
+                        }
+                    }
+                }
+                return digits;
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(fileName);
+            }
+        }
+
+        public void append(int digit) {
+            int word = (int) (length >>> 6);
+            if (word == bits.length) {
+                bits = Arrays.copyOf(bits, bits.length * 2);
+            }
+            if (digit != 0) {
+                bits[word] |= 1L << (63 - (length & 63));
+            }
+            length++;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public int get(long i) {
+            return (int) (bits[(int) (i >>> 6)] >>> (63 - (i & 63))) & 1;
+        }
+
+        /**
+         * Le count cifre da start (1 <= count <= 64) come numero binario:
+         * la cifra start è il bit più significativo.
+         */
+        public long window(long start, int count) {
+            int word = (int) (start >>> 6);
+            int offset = (int) (start & 63);
+            long value = bits[word] << offset;
+            if (offset + count > 64) {
+                value |= bits[word + 1] >>> (64 - offset);
+            }
+            return value >>> (64 - count);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder((int) length);
+            for (long i = 0; i < length; i++) {
+                text.append((char) ('0' + get(i)));
+            }
+            return text.toString();
+        }
+    }
+
+
+    /**
+     * Enumerazione pigra delle decodifiche di una stringa, già in ordine alfabetico.
+     * Visita in profondità il grafo delle suddivisioni: ogni nodo della visita è
+     * l'insieme delle posizioni raggiungibili con il prefisso di caratteri scelto
+     * (un insieme, così decodifiche uguali ottenute con codici diversi dello
+     * stesso carattere vengono prodotte una volta sola). I rami sono ordinati
+     * per carattere e quelli che non possono arrivare alla fine della stringa
+     * vengono scartati grazie alla tabella live, calcolata una volta all'inizio.
+     * La memoria occupata è O(n*maxLength), qualunque sia il numero di decodifiche.
+     * L'ordine è alfabetico se nessun carattere è prefisso di un altro
+     * (Codebook.lettersPrefixFree()).
+     */
+    static class DecodingIterator implements Iterator<String> {
+        private final CharSequence digits;
+        private final Codebook codebook;
+        private final int[] ranks;
+        private final int[] rankToLetter;
+        private final boolean[] live;           // live[i]: da i si può arrivare alla fine
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private final StringBuilder prefix = new StringBuilder();
+        private final int[] lengths, letters;
+        private boolean ready, done;
+
+        /* Nodo della visita: scelte possibili dopo un prefisso lungo prefixLength. */
+        private static class Frame {
+            final int prefixLength;
+            final int[] letterIds;      // Caratteri distinti, in ordine alfabetico
+            final int[][] targets;      // Posizioni raggiunte con ciascun carattere
+            int next;                   // Prossimo ramo da visitare
+
+            Frame(int prefixLength, int[] letterIds, int[][] targets) {
+                this.prefixLength = prefixLength;
+                this.letterIds = letterIds;
+                this.targets = targets;
+            }
+        }
+
+        DecodingIterator(CharSequence digits, Codebook codebook) {
+            this.digits = digits;
+            this.codebook = codebook;
+            this.ranks = codebook.letterRanks();
+            this.rankToLetter = new int[ranks.length];
+            for (int id = 0; id < ranks.length; id++) {
+                rankToLetter[ranks[id]] = id;
+            }
+            this.lengths = new int[codebook.maxLength()];
+            this.letters = new int[codebook.maxLength()];
+
+            int n = digits.length();
+            this.live = new boolean[n + 1];
+            live[n] = true;
+            for (int i = n - 1; i >= 0; i--) {
+                int found = codebook.matchStartingAt(digits, i, lengths, letters);
+                for (int k = 0; k < found && !live[i]; k++) {
+                    live[i] = live[i + lengths[k]];
+                }
+            }
+            if (n > 0 && live[0]) {
+                stack.push(expand(new int[] {0}, 0));
+            }
+        }
+
+        /* Raggruppa per carattere i codici che partono dalle posizioni date. */
+        private Frame expand(int[] positions, int prefixLength) {
+            long[] keys = new long[positions.length * lengths.length];
+            int count = 0;
+            for (int p : positions) {
+                if (p == digits.length()) {
+                    continue;
+                }
+                int found = codebook.matchStartingAt(digits, p, lengths, letters);
+                for (int k = 0; k < found; k++) {
+                    if (live[p + lengths[k]]) {
+                        keys[count++] = ((long) ranks[letters[k]] << 32) | (p + lengths[k]);
+                    }
+                }
+            }
+            Arrays.sort(keys, 0, count);
+
+            int groups = 0;
+            for (int k = 0; k < count; k++) {
+                if (k == 0 || (keys[k] >>> 32) != (keys[k - 1] >>> 32)) {
+                    groups++;
+                }
+            }
+            int[] letterIds = new int[groups];
+            int[][] targets = new int[groups][];
+            int g = -1, start = 0;
+            for (int k = 0; k <= count; k++) {
+                if (k == count || k == 0 || (keys[k] >>> 32) != (keys[k - 1] >>> 32)) {
+                    if (g >= 0) {
+                        // Posizioni distinte raggiunte con il carattere del gruppo g.
+                        int[] reached = new int[k - start];
+                        int size = 0;
+                        for (int q = start; q < k; q++) {
+                            int target = (int) keys[q];
+                            if (size == 0 || reached[size - 1] != target) {
+                                reached[size++] = target;
+                            }
+                        }
+                        targets[g] = Arrays.copyOf(reached, size);
+                    }
+                    if (k < count) {
+                        letterIds[++g] = rankToLetter[(int) (keys[k] >>> 32)];
+                        start = k;
+                    }
+                }
+            }
+            return new Frame(prefixLength, letterIds, targets);
+        }
+
+        /**
+         * Avanza alla decodifica successiva, che resta disponibile in current()
+         * fino alla chiamata seguente. Ritorna false quando le decodifiche sono finite.
+         */
+        boolean advance() {
+            while (!stack.isEmpty()) {
+                Frame top = stack.peek();
+                if (top.next == top.letterIds.length) {
+                    stack.pop();
+                    continue;
+                }
+                int b = top.next++;
+                prefix.setLength(top.prefixLength);
+                prefix.append(codebook.letter(top.letterIds[b]));
+                int[] reached = top.targets[b];
+                stack.push(expand(reached, prefix.length()));
+
+                // Il prefisso precede le sue estensioni: si emette subito se completo.
+                if (reached[reached.length - 1] == digits.length()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CharSequence current() {
+            return prefix;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready && !done) {
+                ready = advance();
+                done = !ready;
+            }
+            return ready;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return prefix.toString();
+        }
+    }
+
+    /**
+     * Indice per l'accesso diretto alle decodifiche in ordine alfabetico.
+     * count[i] è il numero di decodifiche del suffisso s[i..n), calcolato una volta
+     * dalla fine verso l'inizio. Per trovare la k-esima decodifica si scorrono,
+     * in ordine di carattere, i codici che partono dalla posizione corrente: se k
+     * è minore del conteggio del ramo si scende nel ramo, altrimenti lo si salta.
+     * Sia unrank() sia rank() costano O(n*maxLength), quindi una pagina di p
+     * decodifiche costa O(p*n*maxLength), indipendentemente dal totale.
+     * Richiede che ogni carattere abbia un solo codice (decodifiche distinte per
+     * suddivisioni distinte) e che nessun carattere sia prefisso di un altro
+     * (ordine dei caratteri = ordine alfabetico).
+     */
+    static class DecodingIndex {
+        private final CharSequence digits;
+        private final Codebook codebook;
+        private final int[] ranks;
+        private final BigInteger[] count;       // Decodifiche di ogni suffisso
+        private final int[] lengths, letters;
+
+        DecodingIndex(CharSequence digits, Codebook codebook) {
+            if (!codebook.hasUniqueCodes() || !codebook.lettersPrefixFree()) {
+                throw new IllegalStateException("Indice disponibile solo con un codice per carattere e caratteri non prefissi tra loro.");
+            }
+            this.digits = digits;
+            this.codebook = codebook;
+            this.ranks = codebook.letterRanks();
+            this.lengths = new int[codebook.maxLength()];
+            this.letters = new int[codebook.maxLength()];
+
+            int n = digits.length();
+            count = new BigInteger[n + 1];
+            count[n] = n == 0 ? BigInteger.ZERO : BigInteger.ONE;
+            for (int i = n - 1; i >= 0; i--) {
+                BigInteger total = BigInteger.ZERO;
+                int found = codebook.matchStartingAt(digits, i, lengths, letters);
+                for (int k = 0; k < found; k++) {
+                    total = total.add(count[i + lengths[k]]);
+                }
+                count[i] = total;
+            }
+        }
+
+        /* Numero totale di decodifiche. */
+        public BigInteger size() {
+            return count[0];
+        }
+
+        /* Codici che partono da i, ordinati per carattere; ritorna quanti sono. */
+        private int branches(int i) {
+            int found = codebook.matchStartingAt(digits, i, lengths, letters);
+            for (int a = 1; a < found; a++) {
+                int length = lengths[a], letter = letters[a];
+                int b = a - 1;
+                while (b >= 0 && ranks[letters[b]] > ranks[letter]) {
+                    lengths[b + 1] = lengths[b];
+                    letters[b + 1] = letters[b];
+                    b--;
+                }
+                lengths[b + 1] = length;
+                letters[b + 1] = letter;
+            }
+            return found;
+        }
+
+        /* La k-esima decodifica in ordine alfabetico (da 0), o null se k è fuori intervallo. */
+        public String unrank(BigInteger k) {
+            if (k.signum() < 0 || k.compareTo(count[0]) >= 0) {
+                return null;
+            }
+            StringBuilder decoding = new StringBuilder();
+            int i = 0;
+            while (i < digits.length()) {
+                int found = branches(i);
+                for (int b = 0; b < found; b++) {
+                    BigInteger c = count[i + lengths[b]];
+                    if (k.compareTo(c) < 0) {
+                        decoding.append(codebook.letter(letters[b]));
+                        i += lengths[b];
+                        break;
+                    }
+                    k = k.subtract(c);
+                }
+            }
+            return decoding.toString();
+        }
+
+        /* Posizione (da 0) della decodifica in ordine alfabetico, o -1 se non è una decodifica. */
+        public BigInteger rank(String decoding) {
+            BigInteger rank = BigInteger.ZERO;
+            int i = 0, offset = 0;
+            while (i < digits.length()) {
+                int found = branches(i);
+                int chosen = -1;
+                for (int b = 0; b < found && chosen == -1; b++) {
+                    String letter = codebook.letter(letters[b]);
+                    if (count[i + lengths[b]].signum() > 0 && decoding.startsWith(letter, offset)) {
+                        chosen = b;
+                    } else {
+                        rank = rank.add(count[i + lengths[b]]);
+                    }
+                }
+                if (chosen == -1) {
+                    return BigInteger.ONE.negate();
+                }
+                offset += codebook.letter(letters[chosen]).length();
+                i += lengths[chosen];
+            }
+            return offset == decoding.length() && count[0].signum() > 0 ? rank : BigInteger.ONE.negate();
+        }
+
+        /* Le decodifiche dalla posizione from (compresa) per al più size elementi. */
+        public List<String> page(BigInteger from, int size) {
+            List<String> page = new ArrayList<>();
+            for (int k = 0; k < size; k++) {
+                String decoding = unrank(from.add(BigInteger.valueOf(k)));
+                if (decoding == null) {
+                    break;
+                }
+                page.add(decoding);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Le decodifiche di s come Stream, prodotte su richiesta. Solo se nessun
+     * carattere è prefisso di un altro sono distinte e in ordine alfabetico
+     * (e lo Stream lo dichiara): altrimenti, ad esempio con A, B e AB, la stessa
+     * stringa può venire da sequenze di caratteri diverse.
+     */
+    public static Stream<String> streamDecodings() {
+        Iterator<String> iterator = new DecodingIterator(s, codebook);
+        int characteristics = codebook.lettersPrefixFree()
+                ? Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL
+                : Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false);
+    }
+
+    /**
+     * Scrive le decodifiche di s sul Writer, una per riga e in ordine alfabetico,
+     * senza creare una String per ciascuna. Ritorna il numero di righe scritte.
+     */
+    public static long writeDecodings(Writer out) throws IOException {
+        DecodingIterator iterator = new DecodingIterator(s, codebook);
+        long written = 0;
+        while (iterator.advance()) {
+            out.append(iterator.current());
+            out.write('\n');
+            written++;
+        }
+        out.flush();
+        return written;
+    }
+
+
+
     /* Inizializza le codifiche per ogni carattere. */
     public static void setEncodings() {
         encodings = new HashMap<>();
@@ -74,6 +815,61 @@ public class Esercizio2 {
         for (String key : encodings.keySet()) {
             maxLength = Math.max(maxLength, key.length());
         }
+        codebook = Codebook.of(encodings);
+    }
+
+    /* Inizializza le codifiche leggendole dal file indicato. */
+    public static void setEncodings(String fileName) throws FileNotFoundException {
+        codebook = Codebook.load(fileName);
+        encodings = codebook.asMap();
+        maxLength = codebook.maxLength();
+    }
+
+
+
+    /**
+     * Decodifica parziale memorizzata come lista persistente: l'ultimo carattere
+     * e il riferimento alla decodifica del prefisso. Le decodifiche che estendono
+     * lo stesso prefisso condividono i suoi nodi, quindi ogni estensione costa
+     * un solo nodo invece della copia dell'intero prefisso. La stringa viene
+     * costruita solo quando serve, con toString().
+     */
+    static final class Decoding {
+        static final Decoding EMPTY = new Decoding(null, "");
+
+        private final Decoding prev;    // Decodifica del prefisso (null per quella vuota)
+        private final String letter;    // Ultimo carattere
+        private final int length;       // Lunghezza della stringa decodificata
+
+        Decoding(Decoding prev, String letter) {
+            this.prev = prev;
+            this.letter = letter;
+            this.length = (prev == null ? 0 : prev.length) + letter.length();
+        }
+
+        public Decoding getPrev() {
+            return prev;
+        }
+
+        public String getLetter() {
+            return letter;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /* Costruisce la stringa riempiendo l'array dalla fine verso l'inizio. */
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            int end = length;
+            for (Decoding d = this; d != null; d = d.prev) {
+                end -= d.letter.length();
+                d.letter.getChars(0, d.letter.length(), chars, end);
+            }
+            return new String(chars);
+        }
     }
 
 
@@ -85,34 +881,69 @@ public class Esercizio2 {
      * L'utilizzo di Set permette di evitare decodifiche doppie.
      * L'utilizzo della variabile maxLength limita la ricerca
      * del prefisso al massimo di cifre decodificabili.
+     * I codici che terminano in ogni posizione vengono trovati
+     * con il trie del cifrario, senza creare sottostringhe.
+     * Le decodifiche parziali condividono i prefissi (vedi Decoding)
+     * e diventano stringhe solo alla fine.
      */
     public static Set<String> findDecodings() {
-        int length = s.length();
-        List<Set<String>> decodings = new ArrayList<>();
-
-        for(int i=0; i<=length; i++) {
-            decodings.add(new HashSet<>());
-        }
+        Set<String> result = new HashSet<>();
 
         // Caso base: la stringa vuota non ha nessuna decodifica.
         if(s=="") {
-            return decodings.get(length);
+            return result;
         }
 
-        // Caso generale: itera per tutte le possibili sottostringhe.
-        decodings.get(0).add("");
-        for (int i=1; i<=length; i++) {
-            for (int j=1; j<=Math.min(i, maxLength); j++) {
-                String substring = s.substring(i - j, i);
+        for (Decoding d : findSharedDecodings()) {
+            result.add(d.toString());
+        }
+        return result;
+    }
 
-                if (encodings.containsKey(substring)) {
-                    String character = encodings.get(substring);
+    /**
+     * Come findDecodings(), ma restituisce le decodifiche senza costruire
+     * le stringhe: per ogni posizione viene tenuta la lista delle decodifiche
+     * del prefisso, ognuna come nodo che punta alla decodifica da cui deriva.
+     * Se le suddivisioni danno decodifiche diverse (Codebook.hasUniqueCodes())
+     * le decodifiche di un prefisso sono già distinte; altrimenti i duplicati
+     * vengono rimossi posizione per posizione.
+     */
+    public static List<Decoding> findSharedDecodings() {
+        return findSharedDecodings(s, codebook);
+    }
+
+    /* Come findSharedDecodings(), per una stringa e un cifrario qualsiasi. */
+    static List<Decoding> findSharedDecodings(CharSequence digits, Codebook codebook) {
+        int length = digits.length();
+        int maxLength = codebook.maxLength();
+        List<List<Decoding>> decodings = new ArrayList<>();
+
+        for(int i=0; i<=length; i++) {
+            decodings.add(new ArrayList<>());
+        }
+
+        // Caso generale: per ogni posizione, i codici che vi terminano (trie rovesciato).
+        decodings.get(0).add(Decoding.EMPTY);
+        int[] lengths = new int[maxLength];
+        int[] letters = new int[maxLength];
+        boolean distinct = codebook.hasUniqueCodes();
+        for (int i=1; i<=length; i++) {
+            int found = codebook.matchEndingAt(digits, i, lengths, letters);
+            for (int k=0; k<found; k++) {
+                int j = lengths[k];
+                String character = codebook.letter(letters[k]);
                     
-                    // Aggiunge il carattere alla fine delle decodifiche precedenti.
-                    for (String prevDec : decodings.get(i-j)) {
-                        decodings.get(i).add(prevDec + character);
-                    }
+                // Aggiunge il carattere alla fine delle decodifiche precedenti (un nodo ciascuna).
+                for (Decoding prevDec : decodings.get(i-j)) {
+                    decodings.get(i).add(new Decoding(prevDec, character));
+                }
+            }
+            if (!distinct) {
+                Map<String, Decoding> unique = new LinkedHashMap<>();
+                for (Decoding d : decodings.get(i)) {
+                    unique.putIfAbsent(d.toString(), d);
                 }
+                decodings.set(i, new ArrayList<>(unique.values()));
             }
         }
         
@@ -120,10 +951,656 @@ public class Esercizio2 {
         return decodings.get(length);
     }
 
+
+
+    /**
+     * Conta le decodifiche distinte senza costruirle, con qualunque cifrario.
+     * Le decodifiche sono le stringhe lette sui cammini di un automa aciclico non
+     * deterministico: uno stato è una posizione tra due codici, oppure un carattere
+     * di cui sono state scritte le prime k lettere, insieme alla posizione in cui
+     * termina il suo codice. Gli insiemi di stati raggiunti leggendo la stessa
+     * stringa (costruzione dei sottoinsiemi) formano un automa deterministico, in
+     * cui ogni stringa ha un solo cammino: basta contare i cammini. Ogni lettera
+     * scritta allunga la stringa di uno, quindi gli insiemi vengono elaborati a
+     * strati (stringhe lunghe t) sommando i conteggi delle stringhe che arrivano
+     * nello stesso insieme; in memoria c'è un solo strato alla volta.
+     */
+    static class DistinctCounter {
+        /* Codici che iniziano in una posizione, come Codebook.matchStartingAt(). */
+        interface Matches {
+            int startingAt(long start, int[] lengths, int[] letters);
+        }
+
+        /* Insieme ordinato di stati, usato come chiave. */
+        private static final class StateSet {
+            final long[] states;
+            final int hash;
+
+            StateSet(long[] states) {
+                this.states = states;
+                this.hash = Arrays.hashCode(states);
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof StateSet && Arrays.equals(states, ((StateSet) obj).states);
+            }
+        }
+
+        private final Codebook codebook;
+        private final long length;
+        private final Matches matches;
+        private final int[] base;       // base[id] + k - 1: stato interno con k lettere di id scritte
+        private final long stride;      // Stati per posizione (0 = tra due codici)
+        private final int[] lengths, letters;
+
+        DistinctCounter(Codebook codebook, long length, Matches matches) {
+            this.codebook = codebook;
+            this.length = length;
+            this.matches = matches;
+            int count = codebook.letterCount();
+            this.base = new int[count + 1];
+            base[0] = 1;
+            for (int id = 0; id < count; id++) {
+                base[id + 1] = base[id] + codebook.letter(id).length() - 1;
+            }
+            this.stride = base[count];
+            this.lengths = new int[codebook.maxLength()];
+            this.letters = new int[codebook.maxLength()];
+        }
+
+        /* Numero di decodifiche distinte (modulo modulus, se non null). */
+        public BigInteger count(BigInteger modulus) {
+            BigInteger total = BigInteger.ZERO;
+            if (length == 0) {
+                return total;
+            }
+            Map<StateSet, BigInteger> layer = new HashMap<>();
+            layer.put(new StateSet(new long[] {0}), BigInteger.ONE);
+            while (!layer.isEmpty()) {
+                Map<StateSet, BigInteger> next = new HashMap<>();
+                for (Map.Entry<StateSet, BigInteger> entry : layer.entrySet()) {
+                    BigInteger paths = entry.getValue();
+                    if (Arrays.binarySearch(entry.getKey().states, length * stride) >= 0) {
+                        total = total.add(paths);   // Tutte le cifre decodificate
+                        if (modulus != null) {
+                            total = total.mod(modulus);
+                        }
+                    }
+                    for (StateSet target : step(entry.getKey().states)) {
+                        next.merge(target, paths, modulus == null ? BigInteger::add : (a, b) -> a.add(b).mod(modulus));
+                    }
+                }
+                layer = next;
+            }
+            return total;
+        }
+
+        /* Insiemi raggiunti scrivendo una lettera in più, uno per ogni lettera possibile. */
+        private List<StateSet> step(long[] states) {
+            Map<Character, List<Long>> targets = new HashMap<>();
+            for (long state : states) {
+                long position = state / stride;
+                int inner = (int) (state % stride);
+                if (inner == 0) {
+                    int found = matches.startingAt(position, lengths, letters);
+                    for (int k = 0; k < found; k++) {
+                        add(targets, letters[k], 1, position + lengths[k]);
+                    }
+                } else {
+                    int id = letterOf(inner);
+                    add(targets, id, inner - base[id] + 2, position);
+                }
+            }
+            List<StateSet> sets = new ArrayList<>(targets.size());
+            for (List<Long> list : targets.values()) {
+                long[] sorted = new long[list.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = list.get(i);
+                }
+                Arrays.sort(sorted);
+                int distinct = 0;
+                for (int i = 0; i < sorted.length; i++) {
+                    if (distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+                        sorted[distinct++] = sorted[i];
+                    }
+                }
+                sets.add(new StateSet(Arrays.copyOf(sorted, distinct)));
+            }
+            return sets;
+        }
+
+        /* Scrive la lettera written (1-based) del carattere id, il cui codice termina in end. */
+        private void add(Map<Character, List<Long>> targets, int id, int written, long end) {
+            String letter = codebook.letter(id);
+            long state = end * stride + (written == letter.length() ? 0 : base[id] + written - 1);
+            targets.computeIfAbsent(letter.charAt(written - 1), c -> new ArrayList<>()).add(state);
+        }
+
+        /* Carattere a cui appartiene uno stato interno (ricerca binaria su base). */
+        private int letterOf(int inner) {
+            int low = 0, high = base.length - 2;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (base[mid] <= inner) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+
+
+    /**
+     * Conta le decodifiche distinte della stringa s senza costruirle.
+     * count[i] = somma di count[i-j] per ogni codice valido s[i-j..i);
+     * vengono tenuti solo gli ultimi maxLength+1 valori (buffer circolare).
+     * Se ogni carattere ha un solo codice e nessun carattere è prefisso di un
+     * altro, decodifiche costruite da suddivisioni diverse sono stringhe diverse
+     * (vedi Codebook.hasUniqueCodes()), quindi il conteggio coincide con la
+     * dimensione del Set di findDecodings(). Negli altri casi le decodifiche
+     * distinte vengono contate con DistinctCounter, sempre senza costruirle.
+     */
+    public static BigInteger countDecodings() {
+        if (s.isEmpty()) {
+            return BigInteger.ZERO;     // Come findDecodings(): nessuna decodifica
+        }
+        if (!codebook.hasUniqueCodes()) {
+            return new DistinctCounter(codebook, s.length(),
+                    (i, lengths, letters) -> codebook.matchStartingAt(s, (int) i, lengths, letters)).count(null);
+        }
+
+        BigInteger[] count = new BigInteger[maxLength + 1];
+        int[] lengths = new int[maxLength];
+        int[] letters = new int[maxLength];
+        count[0] = BigInteger.ONE;
+        for (int i = 1; i <= s.length(); i++) {
+            BigInteger total = BigInteger.ZERO;
+            int found = codebook.matchEndingAt(s, i, lengths, letters);
+            for (int k = 0; k < found; k++) {
+                total = total.add(count[(i - lengths[k]) % (maxLength + 1)]);
+            }
+            count[i % (maxLength + 1)] = total;
+        }
+        return count[s.length() % (maxLength + 1)];
+    }
+
+    /**
+     * Come countDecodings(), sulle cifre compresse: memoria di un bit per cifra
+     * più gli ultimi maxLength+1 conteggi, e nessuna allocazione per i confronti.
+     */
+    public static BigInteger countDecodings(PackedDigits digits, Codebook codebook) {
+        return countDecodings(digits, codebook, 0);
+    }
+
+    /**
+     * Come countDecodings(PackedDigits, Codebook), ma con il conteggio modulo
+     * modulus se positivo (opzione -modulus): ogni passo usa solo aritmetica su long.
+     */
+    public static BigInteger countDecodings(PackedDigits digits, Codebook codebook, long modulus) {
+        long n = digits.length();
+        if (n == 0) {
+            return BigInteger.ZERO;
+        }
+        if (!codebook.hasUniqueCodes()) {
+            // Decodifiche distinte contate direttamente sulle cifre compresse.
+            return new DistinctCounter(codebook, n, (i, lengths, letters) -> codebook.matchStartingAt(digits, i, lengths, letters))
+                    .count(modulus > 0 ? BigInteger.valueOf(modulus) : null);
+        }
+
+        int maxLength = codebook.maxLength();
+        int[] lengths = new int[maxLength];
+        int[] letters = new int[maxLength];
+        if (modulus > 0) {
+            long[] count = new long[maxLength + 1];
+            count[0] = 1 % modulus;
+            for (long i = 1; i <= n; i++) {
+                long total = 0;
+                int found = codebook.matchEndingAt(digits, i, lengths, letters);
+                for (int k = 0; k < found; k++) {
+                    total = (total + count[(int) ((i - lengths[k]) % (maxLength + 1))]) % modulus;
+                }
+                count[(int) (i % (maxLength + 1))] = total;
+            }
+            return BigInteger.valueOf(count[(int) (n % (maxLength + 1))]);
+        }
+
+        BigInteger[] count = new BigInteger[maxLength + 1];
+        count[0] = BigInteger.ONE;
+        for (long i = 1; i <= n; i++) {
+            BigInteger total = BigInteger.ZERO;
+            int found = codebook.matchEndingAt(digits, i, lengths, letters);
+            for (int k = 0; k < found; k++) {
+                total = total.add(count[(int) ((i - lengths[k]) % (maxLength + 1))]);
+            }
+            count[(int) (i % (maxLength + 1))] = total;
+        }
+        return count[(int) (n % (maxLength + 1))];
+    }
+
     
 
+    /**
+     * Cache con capacità limitata ed eliminazione dell'elemento usato meno di recente,
+     * condivisa tra più thread. È divisa in segmenti indipendenti, scelti con l'hash
+     * della chiave, ognuno dei quali è una LinkedHashMap in ordine di accesso protetta
+     * dal proprio lock: thread che usano chiavi diverse raramente si bloccano a vicenda.
+     */
+    static class LruCache<K, V> {
+        private final List<Map<K, V>> segments = new ArrayList<>();
+
+        LruCache(int capacity, int segmentCount) {
+            int perSegment = Math.max(1, capacity / segmentCount);
+            for (int k = 0; k < segmentCount; k++) {
+                segments.add(new LinkedHashMap<K, V>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                        return size() > perSegment;
+                    }
+                });
+            }
+        }
+
+        private Map<K, V> segment(Object key) {
+            int h = key.hashCode();
+            return segments.get(((h ^ (h >>> 16)) & 0x7fffffff) % segments.size());
+        }
+
+        public V get(K key) {
+            Map<K, V> segment = segment(key);
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        public void put(K key, V value) {
+            Map<K, V> segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Decodificatore senza stato globale: usa solo il cifrario ricevuto, che non
+     * viene più modificato, e due cache condivise. Può quindi essere usato da più
+     * thread contemporaneamente, a differenza dei metodi statici basati su s.
+     * - counts associa ad alcuni suffissi (quelli lunghi un multiplo di STRIDE cifre)
+     *   i conteggi delle decodifiche delle loro prime maxLength posizioni: è tutto
+     *   ciò che serve per continuare la programmazione dinamica verso sinistra,
+     *   quindi righe con lo stesso suffisso non lo ricalcolano.
+     * - results associa a una riga le sue decodifiche ordinate, se non sono troppe.
+     * Il batch distribuisce le righe di un file tra più thread, a blocchi, e scrive
+     * i risultati nell'ordine delle righe.
+     */
+    static class Decoder {
+        private static final int STRIDE = 64;               // Distanza tra i suffissi memorizzati
+        private static final int MAX_SUFFIX = 1 << 12;      // Suffissi più lunghi non vengono memorizzati
+        private static final int MAX_RESULTS = 1 << 10;     // Decodifiche massime di una riga in cache
+        private static final int BLOCK = 256;               // Righe elaborate da ogni task del batch
+
+        private final Codebook codebook;
+        private final boolean uniqueCodes, sorted;
+        private final LruCache<String, BigInteger[]> counts;
+        private final LruCache<String, List<String>> results;
+
+        Decoder(Codebook codebook, int cacheCapacity) {
+            this.codebook = codebook;
+            this.uniqueCodes = codebook.hasUniqueCodes();
+            this.sorted = codebook.lettersPrefixFree();
+            codebook.letterRanks();     // Calcolato ora: in seguito i thread lo leggono soltanto
+            int segmentCount = 4 * Runtime.getRuntime().availableProcessors();
+            this.counts = new LruCache<>(cacheCapacity, segmentCount);
+            this.results = new LruCache<>(cacheCapacity, segmentCount);
+        }
+
+        /**
+         * Numero di decodifiche distinte di digits (0 per la stringa vuota).
+         * Cerca con una ricerca binaria il suffisso memorizzato più lungo tra
+         * quelli lunghi un multiplo di STRIDE e riparte da lì; i suffissi
+         * attraversati vengono memorizzati a loro volta. Se un suffisso è stato
+         * eliminato dalla cache la ricerca può trovarne uno più corto: il
+         * risultato resta corretto, si riusa solo meno lavoro.
+         */
+        public BigInteger count(String digits) {
+            int n = digits.length();
+            if (n == 0) {
+                return BigInteger.ZERO;
+            }
+            if (!uniqueCodes) {
+                return BigInteger.valueOf(findSharedDecodings(digits, codebook).size());
+            }
+
+            int maxLength = codebook.maxLength();
+            BigInteger[] count = new BigInteger[n + 1];
+            count[n] = BigInteger.ONE;
+            int start = n;      // Prima posizione già calcolata
+            int low = 1, high = Math.min(n, MAX_SUFFIX) / STRIDE;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                BigInteger[] window = counts.get(digits.substring(n - mid * STRIDE));
+                if (window != null) {
+                    start = n - mid * STRIDE;
+                    System.arraycopy(window, 0, count, start, window.length);
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            int[] lengths = new int[maxLength];
+            int[] letters = new int[maxLength];
+            for (int i = start - 1; i >= 0; i--) {
+                BigInteger total = BigInteger.ZERO;
+                int found = codebook.matchStartingAt(digits, i, lengths, letters);
+                for (int k = 0; k < found; k++) {
+                    total = total.add(count[i + lengths[k]]);
+                }
+                count[i] = total;
+                if ((n - i) % STRIDE == 0 && n - i <= MAX_SUFFIX) {
+                    counts.put(digits.substring(i), Arrays.copyOfRange(count, i, Math.min(n + 1, i + maxLength)));
+                }
+            }
+            return count[0];
+        }
+
+        /* Decodifiche distinte di digits in ordine alfabetico. */
+        public List<String> decodings(String digits) {
+            List<String> cached = results.get(digits);
+            if (cached != null) {
+                return cached;
+            }
+            List<String> decodings = new ArrayList<>();
+            if (digits.isEmpty()) {
+                return decodings;
+            }
+            if (sorted) {
+                new DecodingIterator(digits, codebook).forEachRemaining(decodings::add);
+            } else {
+                for (Decoding d : findSharedDecodings(digits, codebook)) {
+                    decodings.add(d.toString());
+                }
+                Collections.sort(decodings);
+                // Decodifiche uguali ottenute da suddivisioni diverse: ora sono adiacenti.
+                int distinct = 0;
+                for (String d : decodings) {
+                    if (distinct == 0 || !d.equals(decodings.get(distinct - 1))) {
+                        decodings.set(distinct++, d);
+                    }
+                }
+                decodings.subList(distinct, decodings.size()).clear();
+            }
+            decodings = Collections.unmodifiableList(decodings);
+            if (decodings.size() <= MAX_RESULTS) {
+                results.put(digits, decodings);
+            }
+            return decodings;
+        }
+
+        /* Righe di output per un blocco di righe di input, nello stesso formato di main. */
+        private String report(List<String> lines, boolean countOnly) {
+            StringBuilder out = new StringBuilder();
+            for (String line : lines) {
+                String digits = line.replaceAll(" ", "");
+                if (countOnly) {
+                    out.append(count(digits)).append('\n');
+                    continue;
+                }
+                List<String> decodings = decodings(digits);
+                out.append(decodings.size()).append('\n');
+                for (String d : decodings) {
+                    out.append(d).append('\n');
+                }
+            }
+            return out.toString();
+        }
+
+        /**
+         * Decodifica ogni riga di in con threads thread e scrive su out, nell'ordine
+         * delle righe, il numero di decodifiche seguito (se !countOnly) dalle decodifiche.
+         * Al più 2*threads blocchi di righe sono in lavorazione contemporaneamente.
+         */
+        public void runBatch(BufferedReader in, Writer out, int threads, boolean countOnly)
+                throws IOException, InterruptedException {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                Deque<Future<String>> pending = new ArrayDeque<>();
+                List<String> block = new ArrayList<>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    block.add(line);
+                    if (block.size() == BLOCK) {
+                        List<String> lines = block;
+                        pending.add(pool.submit(() -> report(lines, countOnly)));
+                        block = new ArrayList<>();
+                        if (pending.size() >= 2 * threads) {
+                            out.write(result(pending.poll()));
+                        }
+                    }
+                }
+                if (!block.isEmpty()) {
+                    List<String> lines = block;
+                    pending.add(pool.submit(() -> report(lines, countOnly)));
+                }
+                while (!pending.isEmpty()) {
+                    out.write(result(pending.poll()));
+                }
+                out.flush();
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        private static String result(Future<String> future) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return "ERRORE " + e.getCause() + "\n";
+            }
+        }
+    }
+
+
+
+    /**
+     * Decodificatore incrementale per cifre che arrivano una alla volta.
+     * Per il conteggio tiene solo gli ultimi maxLength+1 valori della programmazione
+     * dinamica (count[i] = decodifiche del prefisso lungo i): aggiungere una cifra
+     * cerca i codici che terminano in essa con il trie rovesciato e somma i conteggi
+     * delle posizioni da cui partono, in O(maxLength).
+     * Le cifre ricevute vengono comunque conservate, perché servono per elencare
+     * le decodifiche: decodings() le enumera in modo pigro, quando richiesto.
+     * La somma della programmazione dinamica conta le decodifiche distinte solo
+     * se Codebook.hasUniqueCodes(): con altri cifrari il conteggio esatto non è
+     * incrementale, quindi il costruttore li rifiuta.
+     */
+    static class IncrementalDecoder {
+        private final Codebook codebook;
+        private final StringBuilder digits = new StringBuilder();
+        private final BigInteger[] count;       // Buffer circolare degli ultimi conteggi
+        private final int[] lengths, letters;
+
+        IncrementalDecoder(Codebook codebook) {
+            if (!codebook.hasUniqueCodes()) {
+                throw new IllegalArgumentException("Con -stream ogni carattere deve avere un solo codice "
+                        + "e nessun carattere può essere prefisso di un altro.");
+            }
+            this.codebook = codebook;
+            this.count = new BigInteger[codebook.maxLength() + 1];
+            this.lengths = new int[codebook.maxLength()];
+            this.letters = new int[codebook.maxLength()];
+            Arrays.fill(count, BigInteger.ZERO);
+            count[0] = BigInteger.ONE;
+        }
+
+        /* Aggiunge una cifra e aggiorna il conteggio. */
+        public void append(char digit) {
+            if (digit != '0' && digit != '1') {
+                throw new IllegalArgumentException("Cifra non binaria: " + digit);
+            }
+            digits.append(digit);
+            int i = digits.length();
+            BigInteger total = BigInteger.ZERO;
+            int found = codebook.matchEndingAt(digits, i, lengths, letters);
+            for (int k = 0; k < found; k++) {
+                total = total.add(count[(i - lengths[k]) % count.length]);
+            }
+            count[i % count.length] = total;
+        }
+
+        /* Aggiunge tutte le cifre, ignorando gli spazi. */
+        public void append(CharSequence chunk) {
+            for (int k = 0; k < chunk.length(); k++) {
+                if (chunk.charAt(k) != ' ') {
+                    append(chunk.charAt(k));
+                }
+            }
+        }
+
+        public int length() {
+            return digits.length();
+        }
+
+        /* Numero di decodifiche delle cifre ricevute finora (0 se non ne è arrivata nessuna). */
+        public BigInteger count() {
+            if (digits.length() == 0) {
+                return BigInteger.ZERO;
+            }
+            return count[digits.length() % count.length];
+        }
+
+        /* Le decodifiche delle cifre ricevute finora, in ordine alfabetico, prodotte su richiesta. */
+        public Iterator<String> decodings() {
+            String snapshot = digits.toString();
+            if (snapshot.isEmpty()) {
+                return Collections.emptyIterator();
+            }
+            return new DecodingIterator(snapshot, codebook);     // Caratteri non prefissi: già in ordine
+        }
+    }
+
+
+
+    /* Modalità -stream: conteggio aggiornato a ogni riga letta dallo standard input. */
+    private static void runStream(String codesFile) {
+        try {
+            if (codesFile != null) {
+                setEncodings(codesFile);
+            } else {
+                setEncodings();
+            }
+            IncrementalDecoder decoder = new IncrementalDecoder(codebook);
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null) {
+                decoder.append(line);
+                System.out.println(decoder.length() + " " + decoder.count());
+            }
+        } catch(FileNotFoundException e) {
+            System.err.println("FILE NOT FOUND: " + e);
+            e.printStackTrace();
+        } catch(IOException e) {
+            System.err.println("IO ERROR: " + e);
+            e.printStackTrace();
+        } catch(IllegalArgumentException e) {
+            System.err.println("INPUT NON VALIDO: " + e.getMessage());
+        }
+    }
+
+    /* Modalità -batch: una stringa per riga, decodificate da un Decoder condiviso. */
+    private static void runBatch(String fileName, String codesFile, int threads, boolean countOnly) {
+        try {
+            Codebook codes;
+            if (codesFile != null) {
+                codes = Codebook.load(codesFile);
+            } else {
+                setEncodings();
+                codes = codebook;
+            }
+            Decoder decoder = new Decoder(codes, 1 << 16);
+            BufferedReader in = new BufferedReader(new FileReader(fileName), 1 << 16);
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+                decoder.runBatch(in, out, threads, countOnly);
+            } finally {
+                in.close();
+            }
+        } catch(FileNotFoundException e) {
+            System.err.println("FILE NOT FOUND: " + e);
+            e.printStackTrace();
+        } catch(IOException e) {
+            System.err.println("IO ERROR: " + e);
+            e.printStackTrace();
+        } catch(IllegalArgumentException e) {
+            System.err.println("INPUT NON VALIDO: " + e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Con l'opzione -count stampa solo il numero di decodifiche,
+     * calcolato senza costruirle; con -codes <file> il cifrario
+     * viene letto dal file indicato; con -page <da> <quante> stampa
+     * solo le decodifiche da quella posizione in ordine alfabetico.
+     * Con -batch <file> decodifica ogni riga del file, con -threads <n> thread,
+     * e stampa i risultati (o solo i conteggi, con -count) nell'ordine delle righe.
+     * Con -count -modulus <m> il conteggio viene calcolato modulo m, con aritmetica
+     * su long (utile quando il numero di decodifiche ha migliaia di cifre).
+     * Con -stream legge le cifre dallo standard input man mano che arrivano e
+     * stampa il numero di decodifiche dopo ogni riga ricevuta.
+     */
     public static void main(String args[]) {
-        if (args.length != 1) {
+        boolean countOnly = false;
+        long modulus = 0;
+        String codesFile = null;
+        BigInteger pageFrom = null;
+        int pageSize = 0;
+        String batchFile = null;
+        boolean stream = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-count")) {
+                countOnly = true;
+            } else if (args[i].equals("-modulus") && i + 1 < args.length) {
+                modulus = Long.parseLong(args[++i]);
+                if (modulus <= 0) {
+                    System.err.println("INPUT NON VALIDO: il modulo deve essere positivo.");
+                    return;
+                }
+            } else if (args[i].equals("-codes") && i + 1 < args.length) {
+                codesFile = args[++i];
+            } else if (args[i].equals("-page") && i + 2 < args.length) {
+                pageFrom = new BigInteger(args[++i]);
+                pageSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-stream")) {
+                stream = true;
+            } else if (args[i].equals("-batch") && i + 1 < args.length) {
+                batchFile = args[++i];
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (stream) {
+            runStream(codesFile);
+            return;
+        }
+        if (batchFile != null) {
+            runBatch(batchFile, codesFile, Math.max(1, threads), countOnly);
+            return;
+        }
+        if (files.size() != 1) {
             System.err.println("Necessario come parametro il nome del file contenente la stringa.");
             return;
         }
@@ -131,7 +1608,18 @@ public class Esercizio2 {
         
         // Legge la stringa da file.
         try {
-            File file = new File(args[0]);
+            if (countOnly) {
+                // Solo il conteggio: le cifre vengono lette compresse, un bit ciascuna.
+                PackedDigits digits = PackedDigits.load(files.get(0));
+                if (codesFile != null) {
+                    setEncodings(codesFile);
+                } else {
+                    setEncodings();
+                }
+                System.out.println(countDecodings(digits, codebook, modulus));
+                return;
+            }
+            File file = new File(files.get(0));
             Scanner scan = new Scanner(file);
             if(scan.hasNextLine()) {
                 s = scan.nextLine();
@@ -139,7 +1627,37 @@ public class Esercizio2 {
             }
             scan.close();
 
-            setEncodings();
+            if (codesFile != null) {
+                setEncodings(codesFile);
+            } else {
+                setEncodings();
+            }
+            if (pageFrom != null) {
+                // Solo la pagina richiesta, tramite l'indice dei conteggi dei suffissi.
+                DecodingIndex index = new DecodingIndex(s, codebook);
+                System.out.println(index.size());
+                for (String d : index.page(pageFrom, pageSize)) {
+                    System.out.println(d);
+                }
+                return;
+            }
+            if (!s.isEmpty() && codebook.lettersPrefixFree()) {
+                // Conteggio senza costruire le decodifiche, poi stampa in streaming già ordinata.
+                if (codebook.hasUniqueCodes()) {
+                    System.out.println(countDecodings());
+                } else {
+                    // Più codici per carattere: il conteggio è una prima visita dell'iteratore.
+                    DecodingIterator iterator = new DecodingIterator(s, codebook);
+                    long total = 0;
+                    while (iterator.advance()) {
+                        total++;
+                    }
+                    System.out.println(total);
+                }
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+                writeDecodings(out);
+                return;
+            }
             List<String> decoding = new ArrayList<>();
             decoding.addAll(findDecodings());
             Collections.sort(decoding);     // Ordinamento per stampa in ordine alfabetico
@@ -152,6 +1670,11 @@ public class Esercizio2 {
         } catch(FileNotFoundException e) {
             System.err.println("FILE NOT FOUND: " + e);
             e.printStackTrace();
+        } catch(IOException e) {
+            System.err.println("IO ERROR: " + e);
+            e.printStackTrace();
+        } catch(IllegalArgumentException | IllegalStateException e) {
+            System.err.println("INPUT NON VALIDO: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
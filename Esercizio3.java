@@ -10,16 +10,37 @@
  * L'algoritmo legge da riga di comando il nome del file contenente
  * la rete stradale e restituisce il percorso più breve per raggiungere
  * la destinazione (nodo n-1) dalla sorgente (nodo 0).
- * - Graph memorizza il grafo che rappresenta la rete stradale.
- * - Edge memorizza il singolo arco orientato e pesato.
+ * - Graph memorizza il grafo che rappresenta la rete stradale in formato CSR:
+ *   per ogni nodo, l'intervallo dei suoi archi uscenti in due array paralleli
+ *   (destinazioni e pesi), senza un oggetto per arco. Può essere convertito
+ *   una volta in un formato binario (opzione -convert), che viene poi mappato
+ *   in memoria e usato direttamente, senza leggere e convertire il testo.
  * - Dijkstra memorizza una sorgente e una destinazione, calcola
  *   il percorso più breve con il metodo findPath() e lo stampa con printPath().
  * - findPath() sfrutta l'algoritmo di Dijkstra, troncato al raggiungimento
  *   della destinazione, per trovare il percorso più breve dalla sorgente alla
  *   destinazione. Se tale percorso non viene trovato (cioè t[dst]=infinito),
  *   printPath() stampa "non raggiungibile".
- * - PriorityElement costituisce il singolo elemento della PriorityQueue
- *   utilizzata nell'algorimto di Dijkstra.
+ * - IndexedHeap è la coda con priorità utilizzata nell'algoritmo di Dijkstra:
+ *   un heap 4-ario di vertici con decreaseKey, che contiene solo i vertici
+ *   già scoperti e non ancora estratti, ognuno una volta sola.
+ * - Landmarks contiene le distanze da e verso alcuni nodi landmark, calcolate
+ *   una volta (opzione -landmarks) e salvate su file; con -alt findPath() usa
+ *   le stime per difetto che ne derivano (A*) e visita molti meno nodi.
+ * - ContractionHierarchy contrae i nodi offline aggiungendo scorciatoie (con
+ *   l'attesa nei nodi inclusa nei costi) e salva la gerarchia (opzione -contract);
+ *   con -ch risponde con una ricerca bidirezionale sui soli archi verso nodi
+ *   più importanti e ricostruisce il percorso con gli archi originali.
+ * - Router calcola percorsi senza stato condiviso modificabile: ogni thread ha il
+ *   proprio spazio di lavoro, azzerato con un contatore di epoca invece che con
+ *   Arrays.fill(). L'opzione -queries risponde in parallelo a un file di
+ *   interrogazioni, stampando i risultati nell'ordine del file.
+ * - DeltaStepping calcola i tempi minimi da una sorgente a tutti i nodi in
+ *   parallelo (opzione -all), elaborando insieme i nodi con tempi vicini
+ *   (entro delta), e salva tempi e predecessori in un file binario.
+ * - DynamicGraph permette di cambiare peso, aggiungere e togliere archi; dopo
+ *   ogni gruppo di modifiche (opzione -updates) ShortestPathTree ricalcola solo
+ *   la parte dell'albero dei percorsi minimi toccata dalle modifiche.
  */
 
 /**
@@ -31,23 +52,57 @@
  * il costo dell'algoritmo equivale al costo dell'algoritmo di Dijkstra tradizionale
  * (poiché deve esplorare tutto il grafo, o comunque tutta la componente, per terminare).
  * -> O(m*log(n)) per un grafo con n nodi e m archi.
+ * Con IndexedHeap la coda contiene al più un elemento per vertice scoperto:
+ * ogni insert e decreaseKey costa O(log_4(n)), ogni deleteMin O(4*log_4(n)).
  */
 
 // java Esercizio3 rete_stradale.txt
+// java Esercizio3 -convert rete_stradale.bin rete_stradale.txt
+// java Esercizio3 rete_stradale.bin
+// java Esercizio3 -landmarks 16 rete_stradale.lmk rete_stradale.bin
+// java Esercizio3 -alt rete_stradale.lmk rete_stradale.bin
+// java Esercizio3 -contract rete_stradale.ch rete_stradale.bin
+// java Esercizio3 -ch rete_stradale.ch
+// java Esercizio3 -threads 8 -queries interrogazioni.txt rete_stradale.bin
+// java Esercizio3 -threads 8 -delta 20 -source 0 -all distanze.bin rete_stradale.bin
+// java Esercizio3 -updates modifiche.txt rete_stradale.bin
 
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Scanner;
-import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 public class Esercizio3 {
     static Graph graph;                 // Grafo contenente la rete stradale
@@ -56,215 +111,2416 @@ public class Esercizio3 {
 
     /**
      * Struttura dati per memorizzare la rete stradale.
-     * Il grafo viene memorizzato come lista di adiacenza.
+     * Gli archi vengono prima raccolti in tre array paralleli (sorgente,
+     * destinazione, peso) e poi, con compact(), il grafo viene memorizzato
+     * in formato CSR: gli archi uscenti dal nodo u occupano le posizioni
+     * [offsets[u], offsets[u+1]) di targets e weights, nell'ordine in cui
+     * sono stati aggiunti. Ogni arco costa 12 byte e gli archi di un nodo
+     * sono contigui in memoria, quindi la visita non segue puntatori.
+     * I tre array sono visti come buffer: possono stare nello heap oppure
+     * essere le sezioni di un file binario mappato in memoria (vedi map()).
+     *
+     * Formato binario (versione 1, little-endian):
+     * - intestazione di 16 byte: MAGIC, VERSION, n, m (int);
+     * - offsets: n+1 int, da byte 16;
+     * - targets: m int, subito dopo;
+     * - weights: m double, dal primo multiplo di 8 successivo.
      */
     private static class Graph {
-        private Vector<LinkedList<Edge>> adjList;   // Lista di adiacenza
+        static final int MAGIC = 0x52335345;    // "ES3R" letto little-endian
+        static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
 
+        private IntBuffer offsets;          // Primo arco uscente da ogni nodo (n+1 elementi)
+        private IntBuffer targets;          // Destinazione di ogni arco
+        private DoubleBuffer weights;       // Peso (tempo di percorrenza) di ogni arco
 
-        /* Memorizza gli archi pesati orientati del grafo (rete stradale). */
-        private class Edge {
-            private int first;
-            private int second;
-            private double weight;
+        // Archi aggiunti e non ancora compattati (null dopo compact()).
+        private int[] fromList, toList;
+        private double[] weightList;
+        private int size;
 
-            public Edge(int first, int second, double weight) {
-                this.first = first;
-                this.second = second;
-                this.weight = weight;
+
+        public Graph() {
+            this.fromList = new int[Math.max(16, m)];
+            this.toList = new int[fromList.length];
+            this.weightList = new double[fromList.length];
+        }
+
+        /* Grafo già in formato CSR, ad esempio mappato da file. */
+        private Graph(IntBuffer offsets, IntBuffer targets, DoubleBuffer weights) {
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+        }
+
+        public void addEdge(int first, int second, double d) {
+            if (fromList == null) {
+                throw new IllegalStateException("Grafo già compattato.");
+            }
+            if (first < 0 || first >= n || second < 0 || second >= n) {
+                throw new IllegalArgumentException("Arco " + first + " -> " + second + " con nodi fuori intervallo.");
+            }
+            if (size == fromList.length) {
+                fromList = Arrays.copyOf(fromList, size * 2);
+                toList = Arrays.copyOf(toList, size * 2);
+                weightList = Arrays.copyOf(weightList, size * 2);
+            }
+            fromList[size] = first;
+            toList[size] = second;
+            weightList[size] = d;
+            size++;
+        }
+
+        /**
+         * Costruisce il formato CSR con un ordinamento per conteggio (stabile)
+         * degli archi per sorgente, in O(n+m). Non fa nulla se già eseguito.
+         */
+        public void compact() {
+            if (fromList == null) {
+                return;
+            }
+            int[] start = new int[n + 1];
+            for (int e = 0; e < size; e++) {
+                start[fromList[e] + 1]++;
+            }
+            for (int u = 0; u < n; u++) {
+                start[u + 1] += start[u];
+            }
+            int[] to = new int[size];
+            double[] weight = new double[size];
+            int[] next = Arrays.copyOf(start, n);
+            for (int e = 0; e < size; e++) {
+                int pos = next[fromList[e]]++;
+                to[pos] = toList[e];
+                weight[pos] = weightList[e];
+            }
+            offsets = IntBuffer.wrap(start);
+            targets = IntBuffer.wrap(to);
+            weights = DoubleBuffer.wrap(weight);
+            fromList = toList = null;
+            weightList = null;
+        }
+
+        /* Grafo trasposto (archi invertiti, stessi pesi), già compattato. */
+        public Graph reversed() {
+            compact();
+            Graph reversed = new Graph();
+            for (int u = 0; u < n; u++) {
+                for (int e = firstEdge(u); e < endEdge(u); e++) {
+                    reversed.addEdge(target(e), u, weight(e));
+                }
+            }
+            reversed.compact();
+            return reversed;
+        }
+
+        /* Posizione nel file della sezione weights, allineata a 8 byte. */
+        private static long weightsPosition(int nodes, int edges) {
+            long end = HEADER_BYTES + 4L * (nodes + 1) + 4L * edges;
+            return (end + 7) & ~7L;
+        }
+
+        /* Scrive il grafo (compattato) nel formato binario. */
+        public void save(String fileName) throws IOException {
+            compact();
+            int nodes = offsets.capacity() - 1, edges = targets.capacity();
+            long weightsAt = weightsPosition(nodes, edges);
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(edges).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, HEADER_BYTES - header.remaining());
+                }
+                channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, 4L * (nodes + 1))
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(offsets.duplicate().rewind());
+                channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 4L * (nodes + 1), 4L * edges)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(targets.duplicate().rewind());
+                channel.map(FileChannel.MapMode.READ_WRITE, weightsAt, 8L * edges)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(weights.duplicate().rewind());
+            }
+        }
+
+        /**
+         * Mappa in memoria un file nel formato binario: nessun dato viene copiato,
+         * le pagine vengono lette dal sistema operativo solo quando la visita le
+         * tocca e sono condivise con gli altri processi che mappano lo stesso file.
+         * Vengono controllati intestazione, dimensione e estremi di offsets;
+         * il resto del contenuto non viene verificato per non leggere tutto il file.
+         * Imposta anche n e m.
+         */
+        public static Graph map(String fileName) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IllegalArgumentException("File binario troppo corto.");
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IllegalArgumentException("Il file non è una rete stradale in formato binario.");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IllegalArgumentException("Versione del formato binario non supportata: " + header.getInt(4));
+                }
+                int nodes = header.getInt(8), edges = header.getInt(12);
+                if (nodes < 0 || edges < 0 || channel.size() != weightsPosition(nodes, edges) + 8L * edges) {
+                    throw new IllegalArgumentException("Dimensione del file binario non valida.");
+                }
+                IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4L * (nodes + 1))
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                IntBuffer targets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 4L * (nodes + 1), 4L * edges)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                DoubleBuffer weights = channel.map(FileChannel.MapMode.READ_ONLY, weightsPosition(nodes, edges), 8L * edges)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                if (offsets.get(0) != 0 || offsets.get(nodes) != edges) {
+                    throw new IllegalArgumentException("Offset del file binario non validi.");
+                }
+                n = nodes;
+                m = edges;
+                return new Graph(offsets, targets, weights);
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(fileName);
+            }
+        }
+
+        /* Vero se il file inizia con l'intestazione del formato binario. */
+        public static boolean isBinary(String fileName) throws IOException {
+            try (InputStream in = new FileInputStream(fileName)) {
+                byte[] magic = new byte[4];
+                return in.read(magic) == 4
+                        && ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+            }
+        }
+
+        /* Numero di nodi (dopo compact()). */
+        public int size() {
+            return offsets.capacity() - 1;
+        }
+
+        /* Primo arco uscente da u; gli archi di u sono [firstEdge(u), endEdge(u)). */
+        public int firstEdge(int u) {
+            return offsets.get(u);
+        }
+
+        public int endEdge(int u) {
+            return offsets.get(u + 1);
+        }
+
+        public int target(int e) {
+            return targets.get(e);
+        }
+
+        public double weight(int e) {
+            return weights.get(e);
+        }
+
+        @Override
+        public String toString() {
+            compact();
+            StringBuilder s = new StringBuilder("{ ");
+            String sep = "";
+            for (int u = 0; u < n; u++) {
+                for (int e = firstEdge(u); e < endEdge(u); e++) {
+                    s.append(sep).append(u).append(" --> ").append(target(e)).append(" [").append(weight(e)).append("]");
+                    sep = ", ";
+                }
+            }
+            return s.append(" }").toString();
+        }
+    }
+
+
+
+    /**
+     * Coda con priorità indicizzata per vertice: heap 4-ario memorizzato in due
+     * array paralleli (vertici e chiavi) più la posizione di ogni vertice nello
+     * heap, così decreaseKey sposta l'elemento esistente invece di aggiungerne
+     * uno nuovo. Ogni vertice è presente al più una volta e nessuna operazione
+     * alloca memoria. Con 4 figli per nodo lo heap è più basso di quello binario
+     * e i figli di un nodo stanno nella stessa linea di cache.
+     */
+    private static class IndexedHeap {
+        private static final int D = 4;
+
+        private final int[] heap;       // Vertici, in ordine di heap
+        private final double[] keys;    // Chiave di heap[i]
+        private final int[] pos;        // Posizione del vertice nello heap, -1 se assente
+        private int size;
+
+        IndexedHeap(int capacity) {
+            this.heap = new int[capacity];
+            this.keys = new double[capacity];
+            this.pos = new int[capacity];
+            Arrays.fill(pos, -1);
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(int v) {
+            return pos[v] != -1;
+        }
+
+        /* Inserisce v con chiave key, oppure ne diminuisce la chiave se è già presente. */
+        public void insertOrDecrease(int v, double key) {
+            int i = pos[v];
+            if (i == -1) {
+                i = size++;
+            } else if (key >= keys[i]) {
+                return;
+            }
+            siftUp(i, v, key);
+        }
+
+        /* Rimuove e ritorna il vertice con chiave minima. */
+        public int poll() {
+            int min = heap[0];
+            pos[min] = -1;
+            size--;
+            if (size > 0) {
+                siftDown(0, heap[size], keys[size]);
+            }
+            return min;
+        }
+
+        public double minKey() {
+            return keys[0];
+        }
+
+        /* Svuota la coda in O(size), senza toccare le posizioni dei vertici assenti. */
+        public void clear() {
+            for (int i = 0; i < size; i++) {
+                pos[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        private void siftUp(int i, int v, double key) {
+            while (i > 0) {
+                int parent = (i - 1) / D;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                place(i, heap[parent], keys[parent]);
+                i = parent;
+            }
+            place(i, v, key);
+        }
+
+        private void siftDown(int i, int v, double key) {
+            while (true) {
+                int first = D * i + 1;
+                if (first >= size) {
+                    break;
+                }
+                int best = first;
+                int last = Math.min(first + D, size);
+                for (int c = first + 1; c < last; c++) {
+                    if (keys[c] < keys[best]) {
+                        best = c;
+                    }
+                }
+                if (keys[best] >= key) {
+                    break;
+                }
+                place(i, heap[best], keys[best]);
+                i = best;
+            }
+            place(i, v, key);
+        }
+
+        private void place(int i, int v, double key) {
+            heap[i] = v;
+            keys[i] = key;
+            pos[v] = i;
+        }
+    }
+
+
+
+    /**
+     * Preprocessing per la ricerca ALT (A*, landmark, disuguaglianza triangolare).
+     * Per k nodi landmark L vengono memorizzate le distanze d(L,v) e d(v,L) verso
+     * e da ogni nodo v; durante la ricerca, per ogni L,
+     *   d(v,dst) >= d(L,dst) - d(L,v)   e   d(v,dst) >= d(v,L) - d(dst,L)
+     * e il massimo di questi valori è una stima per difetto della distanza
+     * rimanente, che guida la ricerca verso la destinazione.
+     * Le distanze usano come costo di un arco (u,v) il peso più l'attesa minima
+     * in v (Dijkstra.attesaMinima()), che non supera il costo reale: le stime
+     * restano per difetto e consistenti, quindi il risultato è esatto.
+     *
+     * Formato binario (versione 1, little-endian): intestazione di 16 byte
+     * (MAGIC, VERSION, n, k), i k nodi landmark (int), allineamento a 8 byte,
+     * poi per ogni landmark le n distanze d(L,v) e le n distanze d(v,L) (double).
+     */
+    private static class Landmarks {
+        static final int MAGIC = 0x4C335345;    // "ES3L" letto little-endian
+        static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+
+        private final int[] nodes;              // Nodi landmark
+        private final DoubleBuffer[] from;      // from[l].get(v) = d(nodes[l], v)
+        private final DoubleBuffer[] to;        // to[l].get(v) = d(v, nodes[l])
+
+        private Landmarks(int[] nodes, DoubleBuffer[] from, DoubleBuffer[] to) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Sceglie k landmark con il criterio del più lontano: il primo è il nodo
+         * raggiungibile più lontano da 0, ogni successivo quello che massimizza
+         * la distanza minima dai landmark già scelti. Costo: 2k visite complete.
+         * Se meno di k nodi sono raggiungibili da 0 vengono scelti solo quelli:
+         * un landmark ripetuto costerebbe due visite e due tabelle senza migliorare
+         * le stime.
+         */
+        public static Landmarks build(Graph graph, int k) {
+            if (k < 1) {
+                throw new IllegalArgumentException("Numero di landmark non valido: " + k);
+            }
+            Graph reversed = graph.reversed();
+            k = Math.min(k, n);
+            int[] nodes = new int[k];
+            DoubleBuffer[] from = new DoubleBuffer[k];
+            DoubleBuffer[] to = new DoubleBuffer[k];
+            IndexedHeap queue = new IndexedHeap(n);
+
+            double[] closest = new double[n];      // Distanza dal landmark più vicino
+            Arrays.fill(closest, Double.POSITIVE_INFINITY);
+            int next = farthest(distances(graph, 0, false, queue), nodes, 0);
+            int l = 0;
+            for (; l < k && next != -1; l++) {
+                nodes[l] = next;
+                double[] forward = distances(graph, next, false, queue);
+                from[l] = DoubleBuffer.wrap(forward);
+                to[l] = DoubleBuffer.wrap(distances(reversed, next, true, queue));
+                for (int v = 0; v < n; v++) {
+                    closest[v] = Math.min(closest[v], forward[v]);
+                }
+                next = farthest(closest, nodes, l + 1);
+            }
+            return new Landmarks(Arrays.copyOf(nodes, l), Arrays.copyOf(from, l), Arrays.copyOf(to, l));
+        }
+
+        /**
+         * Nodo con distanza finita e positiva massima, escludendo i primi count
+         * di chosen; -1 se non ce ne sono.
+         */
+        private static int farthest(double[] dist, int[] chosen, int count) {
+            int best = -1;
+            double bestDist = 0;
+            for (int v = 0; v < dist.length; v++) {
+                if (dist[v] != Double.POSITIVE_INFINITY && dist[v] > bestDist && !contains(chosen, count, v)) {
+                    best = v;
+                    bestDist = dist[v];
+                }
+            }
+            return best;
+        }
+
+        private static boolean contains(int[] array, int count, int x) {
+            for (int i = 0; i < count; i++) {
+                if (array[i] == x) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Distanze da source a tutti i nodi (Dijkstra completo), con costo
+         * peso + attesa minima nella testa dell'arco. Se reversed il grafo è
+         * quello trasposto: la testa dell'arco originale è il nodo estratto.
+         */
+        private static double[] distances(Graph g, int source, boolean reversed, IndexedHeap queue) {
+            double[] dist = new double[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            queue.clear();
+            dist[source] = 0.0;
+            queue.insertOrDecrease(source, 0.0);
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+                for (int e = g.firstEdge(u); e < g.endEdge(u); e++) {
+                    int v = g.target(e);
+                    double time = dist[u] + g.weight(e) + Dijkstra.attesaMinima(reversed ? u : v);
+                    if (time < dist[v]) {
+                        dist[v] = time;
+                        queue.insertOrDecrease(v, time);
+                    }
+                }
+            }
+            return dist;
+        }
+
+        /**
+         * Stima per difetto della distanza da v a dst; infinito se v non può
+         * raggiungere dst (ad esempio se dst raggiunge un landmark che v non raggiunge).
+         */
+        public double lowerBound(int v, int dst) {
+            double bound = 0.0;
+            for (int l = 0; l < nodes.length; l++) {
+                double fromV = from[l].get(v), toDst = to[l].get(dst);
+                if (fromV != Double.POSITIVE_INFINITY) {
+                    bound = Math.max(bound, from[l].get(dst) - fromV);
+                }
+                if (toDst != Double.POSITIVE_INFINITY) {
+                    bound = Math.max(bound, to[l].get(v) - toDst);
+                }
+            }
+            return bound;
+        }
+
+        private static long tablesPosition(int k) {
+            return (HEADER_BYTES + 4L * k + 7) & ~7L;
+        }
+
+        public void save(String fileName) throws IOException {
+            int k = nodes.length;
+            long tablesAt = tablesPosition(k);
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate((int) tablesAt).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(k);
+                for (int node : nodes) {
+                    header.putInt(node);
+                }
+                header.rewind();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                for (int l = 0; l < k; l++) {
+                    channel.map(FileChannel.MapMode.READ_WRITE, tablesAt + 16L * n * l, 8L * n)
+                            .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(from[l].duplicate().rewind());
+                    channel.map(FileChannel.MapMode.READ_WRITE, tablesAt + 16L * n * l + 8L * n, 8L * n)
+                            .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(to[l].duplicate().rewind());
+                }
+            }
+        }
+
+        /* Mappa in memoria le tabelle salvate con save(), che devono riferirsi a un grafo con n nodi. */
+        public static Landmarks map(String fileName) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IllegalArgumentException("File dei landmark troppo corto.");
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IllegalArgumentException("Il file non contiene landmark in formato binario.");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IllegalArgumentException("Versione del file dei landmark non supportata: " + header.getInt(4));
+                }
+                if (header.getInt(8) != n) {
+                    throw new IllegalArgumentException("I landmark sono stati calcolati per un grafo con " + header.getInt(8) + " nodi.");
+                }
+                int k = header.getInt(12);
+                long tablesAt = tablesPosition(k);
+                if (k < 0 || channel.size() != tablesAt + 16L * n * k) {
+                    throw new IllegalArgumentException("Dimensione del file dei landmark non valida.");
+                }
+                int[] nodes = new int[k];
+                channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4L * k).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(nodes);
+                DoubleBuffer[] from = new DoubleBuffer[k];
+                DoubleBuffer[] to = new DoubleBuffer[k];
+                for (int l = 0; l < k; l++) {
+                    from[l] = channel.map(FileChannel.MapMode.READ_ONLY, tablesAt + 16L * n * l, 8L * n)
+                            .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                    to[l] = channel.map(FileChannel.MapMode.READ_ONLY, tablesAt + 16L * n * l + 8L * n, 8L * n)
+                            .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                }
+                return new Landmarks(nodes, from, to);
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(fileName);
+            }
+        }
+    }
+
+
+
+    /**
+     * Contraction Hierarchies: i nodi vengono contratti uno alla volta, in ordine
+     * di importanza; contrarre v significa toglierlo dal grafo aggiungendo, per
+     * ogni coppia di vicini u -> v -> w, una scorciatoia u -> w con il costo dei
+     * due archi, a meno che esista già un cammino non più lungo che evita v
+     * (ricerca di un testimone, limitata). Il rango di un nodo è la sua posizione
+     * nell'ordine di contrazione.
+     * Una interrogazione è una ricerca bidirezionale che percorre solo archi verso
+     * nodi di rango maggiore: in avanti da src sugli archi "up", all'indietro da dst
+     * sugli archi "down". Le due ricerche visitano poche centinaia di nodi anche
+     * su grafi molto grandi. Ogni scorciatoia ricorda il nodo contratto che ha
+     * sostituito, così il percorso viene ricostruito con gli archi originali.
+     * Il costo di un arco (u,v) è il peso più l'attesa in v, come in findPath():
+     * il risultato coincide con quello di Dijkstra se l'attesa non dipende
+     * dall'istante di arrivo (attesa() coincide con attesaMinima()).
+     *
+     * Formato binario (versione 1, little-endian): intestazione di 20 byte
+     * (MAGIC, VERSION, n, numero di archi up, numero di archi down), poi gli int
+     * upOffsets (n+1), upTargets, upMiddles, downOffsets (n+1), downSources,
+     * downMiddles, allineamento a 8 byte, e i double upCosts, downCosts.
+     */
+    private static class ContractionHierarchy {
+        static final int MAGIC = 0x48335345;    // "ES3H" letto little-endian
+        static final int VERSION = 1;
+        private static final int HEADER_BYTES = 20;
+        private static final int WITNESS_LIMIT = 500;      // Nodi estratti al più da una ricerca del testimone
+        private static final int SIMULATION_LIMIT = 50;    // Lo stesso, quando si stima solo l'importanza
+
+        private final int nodes;
+        // Archi u -> v con rango di v maggiore, raggruppati per u.
+        private final IntBuffer upOffsets, upTargets, upMiddles;
+        private final DoubleBuffer upCosts;
+        // Archi u -> v con rango di u maggiore, raggruppati per v (ricerca all'indietro).
+        private final IntBuffer downOffsets, downSources, downMiddles;
+        private final DoubleBuffer downCosts;
+
+        private ContractionHierarchy(int nodes, IntBuffer upOffsets, IntBuffer upTargets, IntBuffer upMiddles, DoubleBuffer upCosts,
+                IntBuffer downOffsets, IntBuffer downSources, IntBuffer downMiddles, DoubleBuffer downCosts) {
+            this.nodes = nodes;
+            this.upOffsets = upOffsets;
+            this.upTargets = upTargets;
+            this.upMiddles = upMiddles;
+            this.upCosts = upCosts;
+            this.downOffsets = downOffsets;
+            this.downSources = downSources;
+            this.downMiddles = downMiddles;
+            this.downCosts = downCosts;
+        }
+
+
+        /* Archi uscenti (o entranti) di un nodo durante la contrazione; middle = -1 per gli archi originali. */
+        private static class Adjacency {
+            int[] node = new int[4];
+            double[] cost = new double[4];
+            int[] middle = new int[4];
+            int size;
+
+            int indexOf(int x) {
+                for (int i = 0; i < size; i++) {
+                    if (node[i] == x) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            void add(int x, double c, int mid) {
+                if (size == node.length) {
+                    node = Arrays.copyOf(node, size * 2);
+                    cost = Arrays.copyOf(cost, size * 2);
+                    middle = Arrays.copyOf(middle, size * 2);
+                }
+                node[size] = x;
+                cost[size] = c;
+                middle[size] = mid;
+                size++;
+            }
+
+            void remove(int x) {
+                int i = indexOf(x);
+                size--;
+                node[i] = node[size];
+                cost[i] = cost[size];
+                middle[i] = middle[size];
+            }
+        }
+
+        /* Archi della gerarchia raccolti durante la contrazione, poi ordinati per nodo (CSR). */
+        private static class EdgeList {
+            int[] owner = new int[16], other = new int[16], middle = new int[16];
+            double[] cost = new double[16];
+            int size;
+
+            void add(int u, int v, double c, int mid) {
+                if (size == owner.length) {
+                    owner = Arrays.copyOf(owner, size * 2);
+                    other = Arrays.copyOf(other, size * 2);
+                    middle = Arrays.copyOf(middle, size * 2);
+                    cost = Arrays.copyOf(cost, size * 2);
+                }
+                owner[size] = u;
+                other[size] = v;
+                middle[size] = mid;
+                cost[size] = c;
+                size++;
+            }
+        }
+
+        /* Stato della contrazione. */
+        private static class Contraction {
+            private final Adjacency[] out, in;
+            private final int[] contractedNeighbors;
+            // Ricerca del testimone.
+            private final double[] dist;
+            private final int[] touched;
+            private int touchedCount;
+            private final IndexedHeap queue;
+            private final int[] targetStamp;       // targetStamp[w] == stamp: w è una destinazione da cercare
+            private int stamp;
+
+            Contraction(Graph graph) {
+                out = new Adjacency[n];
+                in = new Adjacency[n];
+                for (int v = 0; v < n; v++) {
+                    out[v] = new Adjacency();
+                    in[v] = new Adjacency();
+                }
+                contractedNeighbors = new int[n];
+                dist = new double[n];
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                touched = new int[n];
+                queue = new IndexedHeap(n);
+                targetStamp = new int[n];
+                for (int u = 0; u < n; u++) {
+                    for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                        int v = graph.target(e);
+                        if (u != v) {
+                            addOrImprove(u, v, graph.weight(e) + Dijkstra.attesaMinima(v), -1);
+                        }
+                    }
+                }
+            }
+
+            /* Aggiunge l'arco u -> v, o ne riduce il costo se esiste già con costo maggiore. */
+            private void addOrImprove(int u, int v, double c, int mid) {
+                int i = out[u].indexOf(v);
+                if (i == -1) {
+                    out[u].add(v, c, mid);
+                    in[v].add(u, c, mid);
+                } else if (c < out[u].cost[i]) {
+                    out[u].cost[i] = c;
+                    out[u].middle[i] = mid;
+                    int j = in[v].indexOf(u);
+                    in[v].cost[j] = c;
+                    in[v].middle[j] = mid;
+                }
+            }
+
+            /**
+             * Dijkstra locale da source che evita excluded, fino a distanza limit
+             * o maxSettled nodi; termina prima se ha estratto tutte le targets
+             * destinazioni (i nodi con targetStamp uguale a stamp).
+             */
+            private void witnessSearch(int source, int excluded, double limit, int targets, int maxSettled) {
+                dist[source] = 0.0;
+                touched[touchedCount++] = source;
+                queue.insertOrDecrease(source, 0.0);
+                int settled = 0;
+                while (!queue.isEmpty() && queue.minKey() <= limit && settled < maxSettled && targets > 0) {
+                    int u = queue.poll();
+                    settled++;
+                    if (targetStamp[u] == stamp) {
+                        targets--;
+                    }
+                    Adjacency edges = out[u];
+                    for (int i = 0; i < edges.size; i++) {
+                        int v = edges.node[i];
+                        double d = dist[u] + edges.cost[i];
+                        if (v != excluded && d < dist[v]) {
+                            if (dist[v] == Double.POSITIVE_INFINITY) {
+                                touched[touchedCount++] = v;
+                            }
+                            dist[v] = d;
+                            queue.insertOrDecrease(v, d);
+                        }
+                    }
+                }
+                queue.clear();
+            }
+
+            private void resetWitness() {
+                for (int i = 0; i < touchedCount; i++) {
+                    dist[touched[i]] = Double.POSITIVE_INFINITY;
+                }
+                touchedCount = 0;
+            }
+
+            /**
+             * Scorciatoie necessarie per contrarre v; se apply vengono anche aggiunte.
+             * Per la sola stima la ricerca del testimone è più corta: può trovare
+             * qualche scorciatoia superflua in più, ma non cambia il risultato.
+             */
+            private int shortcuts(int v, boolean apply) {
+                int added = 0;
+                Adjacency ins = in[v], outs = out[v];
+                for (int i = 0; i < ins.size; i++) {
+                    int u = ins.node[i];
+                    double limit = 0.0;
+                    int targets = 0;
+                    stamp++;
+                    for (int j = 0; j < outs.size; j++) {
+                        if (outs.node[j] != u) {
+                            limit = Math.max(limit, ins.cost[i] + outs.cost[j]);
+                            targetStamp[outs.node[j]] = stamp;
+                            targets++;
+                        }
+                    }
+                    if (targets == 0) {
+                        continue;
+                    }
+                    witnessSearch(u, v, limit, targets, apply ? WITNESS_LIMIT : SIMULATION_LIMIT);
+                    for (int j = 0; j < outs.size; j++) {
+                        int w = outs.node[j];
+                        double via = ins.cost[i] + outs.cost[j];
+                        if (w != u && !(dist[w] <= via)) {
+                            added++;
+                            if (apply) {
+                                addOrImprove(u, w, via, v);
+                            }
+                        }
+                    }
+                    resetWitness();
+                }
+                return added;
+            }
+
+            /* Importanza: differenza tra scorciatoie e archi rimossi, più i vicini già contratti. */
+            private double importance(int v) {
+                return shortcuts(v, false) - in[v].size - out[v].size + contractedNeighbors[v];
+            }
+
+            /* Contrae v, che non ha più archi verso nodi non contratti, e registra i suoi archi nella gerarchia. */
+            private void contract(int v, EdgeList up, EdgeList down) {
+                Adjacency outs = out[v], ins = in[v];
+                for (int j = 0; j < outs.size; j++) {
+                    up.add(v, outs.node[j], outs.cost[j], outs.middle[j]);
+                }
+                for (int i = 0; i < ins.size; i++) {
+                    down.add(v, ins.node[i], ins.cost[i], ins.middle[i]);
+                }
+                shortcuts(v, true);
+                for (int j = 0; j < outs.size; j++) {
+                    in[outs.node[j]].remove(v);
+                    contractedNeighbors[outs.node[j]]++;
+                }
+                for (int i = 0; i < ins.size; i++) {
+                    out[ins.node[i]].remove(v);
+                    contractedNeighbors[ins.node[i]]++;
+                }
+                out[v] = in[v] = null;
+            }
+        }
+
+        /**
+         * Costruisce la gerarchia. L'ordine di contrazione usa una coda con
+         * priorità sull'importanza, aggiornata in modo pigro: il nodo estratto
+         * viene rivalutato e, se non è più il minimo, reinserito.
+         */
+        public static ContractionHierarchy build(Graph graph) {
+            Contraction work = new Contraction(graph);
+            IndexedHeap order = new IndexedHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.insertOrDecrease(v, work.importance(v));
+            }
+            EdgeList up = new EdgeList(), down = new EdgeList();
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                double importance = work.importance(v);
+                if (!order.isEmpty() && importance > order.minKey()) {
+                    order.insertOrDecrease(v, importance);
+                    continue;
+                }
+                work.contract(v, up, down);
+            }
+
+            int[] upOffsets = new int[n + 1], downOffsets = new int[n + 1];
+            int[] upTargets = new int[up.size], upMiddles = new int[up.size];
+            int[] downSources = new int[down.size], downMiddles = new int[down.size];
+            double[] upCosts = new double[up.size], downCosts = new double[down.size];
+            toCsr(up, upOffsets, upTargets, upMiddles, upCosts);
+            toCsr(down, downOffsets, downSources, downMiddles, downCosts);
+            return new ContractionHierarchy(n, IntBuffer.wrap(upOffsets), IntBuffer.wrap(upTargets),
+                    IntBuffer.wrap(upMiddles), DoubleBuffer.wrap(upCosts), IntBuffer.wrap(downOffsets),
+                    IntBuffer.wrap(downSources), IntBuffer.wrap(downMiddles), DoubleBuffer.wrap(downCosts));
+        }
+
+        /* Ordinamento per conteggio degli archi per owner, come Graph.compact(). */
+        private static void toCsr(EdgeList edges, int[] offsets, int[] other, int[] middle, double[] cost) {
+            for (int e = 0; e < edges.size; e++) {
+                offsets[edges.owner[e] + 1]++;
+            }
+            for (int u = 0; u + 1 < offsets.length; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+            for (int e = 0; e < edges.size; e++) {
+                int pos = next[edges.owner[e]]++;
+                other[pos] = edges.other[e];
+                middle[pos] = edges.middle[e];
+                cost[pos] = edges.cost[e];
+            }
+        }
+
+        public int size() {
+            return nodes;
+        }
+
+        /* Posizioni delle sezioni nel file: int, poi double allineati a 8 byte. */
+        private static long[] layout(int nodes, int ups, int downs) {
+            long[] at = new long[9];
+            at[0] = HEADER_BYTES;                       // upOffsets
+            at[1] = at[0] + 4L * (nodes + 1);           // upTargets
+            at[2] = at[1] + 4L * ups;                   // upMiddles
+            at[3] = at[2] + 4L * ups;                   // downOffsets
+            at[4] = at[3] + 4L * (nodes + 1);           // downSources
+            at[5] = at[4] + 4L * downs;                 // downMiddles
+            at[6] = (at[5] + 4L * downs + 7) & ~7L;     // upCosts
+            at[7] = at[6] + 8L * ups;                   // downCosts
+            at[8] = at[7] + 8L * downs;                 // Fine del file
+            return at;
+        }
+
+        private static IntBuffer ints(FileChannel channel, FileChannel.MapMode mode, long at, int count) throws IOException {
+            return channel.map(mode, at, 4L * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+
+        private static DoubleBuffer doubles(FileChannel channel, FileChannel.MapMode mode, long at, int count) throws IOException {
+            return channel.map(mode, at, 8L * count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+
+        public void save(String fileName) throws IOException {
+            int ups = upTargets.capacity(), downs = downSources.capacity();
+            long[] at = layout(nodes, ups, downs);
+            FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(ups).putInt(downs).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                ints(channel, mode, at[0], nodes + 1).put(upOffsets.duplicate().rewind());
+                ints(channel, mode, at[1], ups).put(upTargets.duplicate().rewind());
+                ints(channel, mode, at[2], ups).put(upMiddles.duplicate().rewind());
+                ints(channel, mode, at[3], nodes + 1).put(downOffsets.duplicate().rewind());
+                ints(channel, mode, at[4], downs).put(downSources.duplicate().rewind());
+                ints(channel, mode, at[5], downs).put(downMiddles.duplicate().rewind());
+                doubles(channel, mode, at[6], ups).put(upCosts.duplicate().rewind());
+                doubles(channel, mode, at[7], downs).put(downCosts.duplicate().rewind());
+            }
+        }
+
+        /* Mappa in memoria una gerarchia salvata con save(); imposta n. */
+        public static ContractionHierarchy map(String fileName) throws IOException {
+            FileChannel.MapMode mode = FileChannel.MapMode.READ_ONLY;
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IllegalArgumentException("File della gerarchia troppo corto.");
+                }
+                ByteBuffer header = channel.map(mode, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IllegalArgumentException("Il file non contiene una gerarchia in formato binario.");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IllegalArgumentException("Versione del file della gerarchia non supportata: " + header.getInt(4));
+                }
+                int nodes = header.getInt(8), ups = header.getInt(12), downs = header.getInt(16);
+                if (nodes < 0 || ups < 0 || downs < 0 || channel.size() != layout(nodes, ups, downs)[8]) {
+                    throw new IllegalArgumentException("Dimensione del file della gerarchia non valida.");
+                }
+                long[] at = layout(nodes, ups, downs);
+                n = nodes;
+                return new ContractionHierarchy(nodes, ints(channel, mode, at[0], nodes + 1), ints(channel, mode, at[1], ups),
+                        ints(channel, mode, at[2], ups), doubles(channel, mode, at[6], ups),
+                        ints(channel, mode, at[3], nodes + 1), ints(channel, mode, at[4], downs),
+                        ints(channel, mode, at[5], downs), doubles(channel, mode, at[7], downs));
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(fileName);
+            }
+        }
+
+
+        /**
+         * Spazio di lavoro di una interrogazione: distanze, predecessori e code
+         * delle due ricerche. Dopo ogni interrogazione vengono azzerati solo i nodi
+         * toccati, quindi il costo non dipende da n.
+         */
+        class Query {
+            private final double[] forward = new double[nodes], backward = new double[nodes];
+            private final int[] forwardPred = new int[nodes], backwardPred = new int[nodes];  // Nodo precedente nella ricerca
+            private final int[] forwardEdge = new int[nodes], backwardEdge = new int[nodes];  // Arco usato per arrivarci
+            private final IndexedHeap forwardQueue = new IndexedHeap(nodes), backwardQueue = new IndexedHeap(nodes);
+            private int[] touched = new int[64];
+            private int touchedCount;
+            private int src, dst, meeting = -1;
+            private double time = Double.POSITIVE_INFINITY;
+
+            Query() {
+                Arrays.fill(forward, Double.POSITIVE_INFINITY);
+                Arrays.fill(backward, Double.POSITIVE_INFINITY);
+            }
+
+            /* Calcola il tempo minimo da src a dst (infinito se non raggiungibile). */
+            public double run(int src, int dst) {
+                reset();
+                this.src = src;
+                this.dst = dst;
+                visit(src);
+                visit(dst);
+                forward[src] = 0.0;
+                backward[dst] = 0.0;
+                forwardPred[src] = backwardPred[dst] = -1;
+                forwardQueue.insertOrDecrease(src, 0.0);
+                backwardQueue.insertOrDecrease(dst, 0.0);
+
+                while (true) {
+                    boolean forwardOpen = !forwardQueue.isEmpty() && forwardQueue.minKey() < time;
+                    boolean backwardOpen = !backwardQueue.isEmpty() && backwardQueue.minKey() < time;
+                    if (!forwardOpen && !backwardOpen) {
+                        break;
+                    }
+                    if (forwardOpen && (!backwardOpen || forwardQueue.minKey() <= backwardQueue.minKey())) {
+                        int u = forwardQueue.poll();
+                        meet(u);
+                        if (stalled(u, forward, downOffsets, downSources, downCosts)) {
+                            continue;
+                        }
+                        for (int e = upOffsets.get(u); e < upOffsets.get(u + 1); e++) {
+                            int v = upTargets.get(e);
+                            double d = forward[u] + upCosts.get(e);
+                            if (d < forward[v]) {
+                                visit(v);
+                                forward[v] = d;
+                                forwardPred[v] = u;
+                                forwardEdge[v] = e;
+                                forwardQueue.insertOrDecrease(v, d);
+                            }
+                        }
+                    } else {
+                        int u = backwardQueue.poll();
+                        meet(u);
+                        if (stalled(u, backward, upOffsets, upTargets, upCosts)) {
+                            continue;
+                        }
+                        for (int e = downOffsets.get(u); e < downOffsets.get(u + 1); e++) {
+                            int v = downSources.get(e);
+                            double d = backward[u] + downCosts.get(e);
+                            if (d < backward[v]) {
+                                visit(v);
+                                backward[v] = d;
+                                backwardPred[v] = u;
+                                backwardEdge[v] = e;
+                                backwardQueue.insertOrDecrease(v, d);
+                            }
+                        }
+                    }
+                }
+                return time;
+            }
+
+            /**
+             * Stall-on-demand: se un nodo x di rango maggiore, già raggiunto dalla
+             * stessa ricerca, arriva a u con un arco della direzione opposta in
+             * meno tempo, dist[u] non è la distanza minima e gli archi di u non
+             * vengono espansi (i cammini che passano da u passano anche da x).
+             */
+            private boolean stalled(int u, double[] dist, IntBuffer reverseOffsets, IntBuffer reverseOthers, DoubleBuffer reverseCosts) {
+                for (int e = reverseOffsets.get(u); e < reverseOffsets.get(u + 1); e++) {
+                    if (dist[reverseOthers.get(e)] + reverseCosts.get(e) < dist[u]) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            private void meet(int u) {
+                if (forward[u] + backward[u] < time) {
+                    time = forward[u] + backward[u];
+                    meeting = u;
+                }
+            }
+
+            private void visit(int v) {
+                if (forward[v] == Double.POSITIVE_INFINITY && backward[v] == Double.POSITIVE_INFINITY) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = v;
+                }
+            }
+
+            private void reset() {
+                for (int i = 0; i < touchedCount; i++) {
+                    forward[touched[i]] = backward[touched[i]] = Double.POSITIVE_INFINITY;
+                }
+                touchedCount = 0;
+                forwardQueue.clear();
+                backwardQueue.clear();
+                meeting = -1;
+                time = Double.POSITIVE_INFINITY;
+            }
+
+            /**
+             * Percorso dell'ultima interrogazione con i soli archi originali
+             * (null se dst non è raggiungibile). Le scorciatoie u -> w con nodo
+             * intermedio v vengono sostituite da u -> v e v -> w, con una pila.
+             */
+            public int[] path() {
+                if (meeting == -1) {
+                    return null;
+                }
+                // Archi della gerarchia da src a dst: (coda, testa, intermedio).
+                int hops = 0;
+                for (int v = meeting; v != src; v = forwardPred[v]) {
+                    hops++;
+                }
+                for (int v = meeting; v != dst; v = backwardPred[v]) {
+                    hops++;
+                }
+                int[] tails = new int[hops], heads = new int[hops], middles = new int[hops];
+                int k = 0;
+                for (int v = meeting; v != dst; v = backwardPred[v]) {
+                    k++;
+                }
+                int split = hops - k;       // Archi della ricerca in avanti
+                k = split;
+                for (int v = meeting; v != src; v = forwardPred[v]) {
+                    k--;
+                    tails[k] = forwardPred[v];
+                    heads[k] = v;
+                    middles[k] = upMiddles.get(forwardEdge[v]);
+                }
+                k = split;
+                for (int v = meeting; v != dst; v = backwardPred[v]) {
+                    tails[k] = v;
+                    heads[k] = backwardPred[v];
+                    middles[k] = downMiddles.get(backwardEdge[v]);
+                    k++;
+                }
+
+                int[] path = new int[16];
+                int length = 0;
+                path[length++] = src;
+                int[] stack = new int[48];
+                for (int h = 0; h < hops; h++) {
+                    int top = 0;
+                    stack[top++] = tails[h];
+                    stack[top++] = heads[h];
+                    stack[top++] = middles[h];
+                    while (top > 0) {
+                        int mid = stack[--top], head = stack[--top], tail = stack[--top];
+                        if (mid == -1) {
+                            if (length == path.length) {
+                                path = Arrays.copyOf(path, length * 2);
+                            }
+                            path[length++] = head;
+                            continue;
+                        }
+                        if (top + 6 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        // Prima tail -> mid, poi mid -> head: la seconda va sotto nella pila.
+                        stack[top++] = mid;
+                        stack[top++] = head;
+                        stack[top++] = middleOf(mid, head, true);
+                        stack[top++] = tail;
+                        stack[top++] = mid;
+                        stack[top++] = middleOf(tail, mid, false);
+                    }
+                }
+                return Arrays.copyOf(path, length);
+            }
+
+            /**
+             * Nodo intermedio dell'arco tail -> head, che è incidente al nodo
+             * contratto prima dei due: se up l'arco parte da tail (contratto prima),
+             * altrimenti arriva a head.
+             */
+            private int middleOf(int tail, int head, boolean up) {
+                if (up) {
+                    for (int e = upOffsets.get(tail); e < upOffsets.get(tail + 1); e++) {
+                        if (upTargets.get(e) == head) {
+                            return upMiddles.get(e);
+                        }
+                    }
+                } else {
+                    for (int e = downOffsets.get(head); e < downOffsets.get(head + 1); e++) {
+                        if (downSources.get(e) == tail) {
+                            return downMiddles.get(e);
+                        }
+                    }
+                }
+                throw new IllegalStateException("Arco " + tail + " -> " + head + " assente dalla gerarchia.");
+            }
+
+            /* Stampa come Dijkstra.printPath() il risultato dell'ultima interrogazione. */
+            public void printPath() {
+                int[] path = path();
+                if (path == null) {
+                    System.out.println("NON RAGGIUNGIBILE.");
+                    return;
+                }
+                StringBuilder line = new StringBuilder();
+                for (int v : path) {
+                    line.append(v).append(' ');
+                }
+                System.out.printf("%.2f\n", time);
+                System.out.println(line);
+            }
+        }
+    }
+
+
+
+    /**
+     * Dati un grafo, una sorgente e una destinazione,
+     * stampa il percorso più breve per raggiungere
+     * la destinazione dalla sorgente (se possibile).
+     */
+    private static class Dijkstra {
+        private final int src, dst, MATR;           // Sorgente, destinazione, numero di matricola
+        private Random rand;                        // Generatore di numeri (pseudo)casuali per il metodo attesa
+        private IndexedHeap queue;                  // Coda con priorità indicizzata per vertice
+        private boolean[] added;                    // Array di nodi aggiunti al percorso
+	    private double[] t;                         // Array di distanze (in tempo) dalla sorgente
+        private int[] pred;                         // Array di nodi predecessori
+        private Landmarks landmarks;                // Stime per la ricerca ALT (null: Dijkstra semplice)
+        private int settled;                        // Nodi estratti dalla coda
+
+
+        public Dijkstra(int src, int dst) {
+            this(src, dst, null);
+        }
+
+        /* Con landmarks non null la ricerca è A* guidata dalle stime dei landmark. */
+        public Dijkstra(int src, int dst, Landmarks landmarks) {
+            this.landmarks = landmarks;
+            this.src = src;
+            this.dst = dst;
+            this.MATR = 1068987;
+
+            this.rand = new Random(MATR);        // Seed fissato numero di matricola
+            //this.rand = new Random(10000);     // Seed fissato 10_000
+
+            this.queue = new IndexedHeap(n);
+            this.added = new boolean[n];
+	        this.t = new double[n];
+            this.pred = new int[n];
+
+            graph.compact();    // Formato CSR, se non ancora costruito
+            findPath();     // Calcola il cammino di costo minimo
+        }
+
+        /**
+         * Sfrutta l'algoritmo di Dijkstra per trovare
+         * il cammino più breve da un dato nodo sorgente
+         * (src) a un dato nodo destinazione (dst).
+         * Con i landmark la priorità di v è t[v] più la stima per difetto della
+         * distanza da v a dst (A*): i nodi lontani dalla direzione di dst vengono
+         * estratti tardi o mai, e quelli che non possono raggiungere dst non entrano
+         * nella coda. Le stime sono consistenti, quindi un nodo estratto ha già la
+         * distanza definitiva, come in Dijkstra.
+         */
+        private void findPath() {
+            Arrays.fill(t, Double.POSITIVE_INFINITY);
+            Arrays.fill(pred, -1);
+            Arrays.fill(added, false);
+            queue.clear();
+            settled = 0;
+            t[src] = 0.0;
+
+            // Solo i vertici scoperti entrano nella coda, non tutti gli n.
+            queue.insertOrDecrease(src, t[src] + estimate(src));     // insert
+
+            while (!queue.isEmpty()) {
+                int u = queue.poll();           // find e deleteMin
+                settled++;
+                if(u == dst) {
+                    break;
+                }
+                added[u] = true;
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    int v = graph.target(e);
+                    double arrival = t[u] + graph.weight(e);
+                    double newTime = arrival + attesa(v, arrival);
+                    if (!added[v] && (newTime < t[v])) {
+                        double h = estimate(v);
+                        if (h == Double.POSITIVE_INFINITY) {
+                            continue;       // Da v non si raggiunge dst
+                        }
+                        t[v] = newTime;
+                        queue.insertOrDecrease(v, t[v] + h);    // insert o decreaseKey
+                        pred[v] = u;
+                    }
+                }
+            }
+        }
+
+        /* Stima per difetto del tempo da v a dst (0 senza landmark). */
+        private double estimate(int v) {
+            return landmarks == null ? 0.0 : landmarks.lowerBound(v, dst);
+        }
+
+        /* Numero di nodi estratti dalla coda nell'ultima ricerca. */
+        public int getSettled() {
+            return settled;
+        }
+
+        /**
+         * Ritorna il tempo di attesa in corrispondenza di
+         * un nodo i raggiunto all'istante di tempo t.
+         * I commenti contengono varianti del metodo.
+         */
+        private double attesa(int i, double t) {
+            //return rand.nextDouble();
+            //return rand.nextDouble()*10;
+            return 5.0;
+        }
+
+        /**
+         * Stima per difetto di attesa(i, t) per qualunque istante t, usata dai
+         * landmark. Deve restare coerente con attesa(): con le varianti casuali
+         * l'attesa minima è 0.
+         */
+        static double attesaMinima(int i) {
+            return 5.0;
+        }
+
+        /* Stampa il percorso più breve e il tempo necessario. */
+        public void printPath() {
+            // Controlla se la destinazione è raggiungibile.
+            if (t[dst] == Double.POSITIVE_INFINITY) {
+                System.out.println("NON RAGGIUNGIBILE.");
+            } 
+            else {
+                // Ricostruisce il percorso da src a dst e stampa.
+                String path = "";
+                for (int node=dst; node!=-1; node=pred[node]) {
+                    path = node + " " + path;
+                }
+                System.out.printf("%.2f\n",t[dst]);
+                System.out.println(path);
+            }
+        }
+    }
+
+
+
+    /* Risultato di una interrogazione: tempo minimo e percorso (null se dst non è raggiungibile). */
+    private static final class Route {
+        final double time;
+        final int[] path;
+
+        Route(double time, int[] path) {
+            this.time = time;
+            this.path = path;
+        }
+
+        /* Stesso formato di Dijkstra.printPath(). */
+        @Override
+        public String toString() {
+            if (path == null) {
+                return "NON RAGGIUNGIBILE.\n";
+            }
+            StringBuilder s = new StringBuilder(String.format("%.2f\n", time));
+            for (int v : path) {
+                s.append(v).append(' ');
+            }
+            return s.append('\n').toString();
+        }
+    }
+
+    /**
+     * Calcolatore di percorsi condivisibile tra thread: il grafo (ed eventualmente
+     * i landmark o la gerarchia) viene solo letto, mentre lo stato di una ricerca
+     * sta in uno spazio di lavoro per thread (ThreadLocal, valido anche per i
+     * virtual thread). Invece di riempire distanze e predecessori a ogni ricerca,
+     * ogni nodo ha il numero della ricerca (epoca) in cui è stato scritto l'ultima
+     * volta: i valori con un'epoca diversa valgono come "non raggiunto", quindi
+     * il costo di una ricerca dipende solo dai nodi visitati, non da n.
+     * L'attesa nei nodi è attesaMinima(): le varianti casuali di attesa()
+     * condividono un Random e non sono utilizzabili da più thread.
+     */
+    private static class Router {
+        private static final int BLOCK = 64;        // Interrogazioni elaborate da ogni task del batch
+
+        private final Graph graph;
+        private final int nodes;
+        private final Landmarks landmarks;                  // null: Dijkstra semplice
+        private final ContractionHierarchy hierarchy;       // Se presente, usata al posto del grafo
+        private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+        private final ThreadLocal<ContractionHierarchy.Query> queries;
+
+        /* Spazio di lavoro di un thread. */
+        private class Workspace {
+            final double[] t = new double[nodes];
+            final int[] pred = new int[nodes];
+            final int[] reached = new int[nodes];       // Epoca in cui t e pred sono stati scritti
+            final int[] settled = new int[nodes];       // Epoca in cui il nodo è stato estratto
+            final IndexedHeap queue = new IndexedHeap(nodes);
+            int epoch;
+
+            /* Inizia una nuova ricerca; azzera gli array solo quando l'epoca si esaurisce. */
+            void next() {
+                if (++epoch == Integer.MAX_VALUE) {
+                    Arrays.fill(reached, 0);
+                    Arrays.fill(settled, 0);
+                    epoch = 1;
+                }
+                queue.clear();
+            }
+
+            double time(int v) {
+                return reached[v] == epoch ? t[v] : Double.POSITIVE_INFINITY;
+            }
+        }
+
+        Router(Graph graph, Landmarks landmarks) {
+            graph.compact();
+            this.graph = graph;
+            this.nodes = graph.size();
+            this.landmarks = landmarks;
+            this.hierarchy = null;
+            this.queries = null;
+        }
+
+        Router(ContractionHierarchy hierarchy) {
+            this.graph = null;
+            this.nodes = hierarchy.size();
+            this.landmarks = null;
+            this.hierarchy = hierarchy;
+            this.queries = ThreadLocal.withInitial(() -> hierarchy.new Query());
+        }
+
+        /* Percorso più breve da src a dst; stessa ricerca di Dijkstra.findPath(). */
+        public Route route(int src, int dst) {
+            if (src < 0 || src >= nodes || dst < 0 || dst >= nodes) {
+                throw new IllegalArgumentException("Nodi fuori intervallo: " + src + " " + dst);
+            }
+            if (hierarchy != null) {
+                ContractionHierarchy.Query query = queries.get();
+                double time = query.run(src, dst);
+                return new Route(time, query.path());
+            }
+
+            Workspace w = workspaces.get();
+            w.next();
+            w.t[src] = 0.0;
+            w.pred[src] = -1;
+            w.reached[src] = w.epoch;
+            w.queue.insertOrDecrease(src, estimate(src, dst));
+            while (!w.queue.isEmpty()) {
+                int u = w.queue.poll();
+                if (u == dst) {
+                    break;
+                }
+                w.settled[u] = w.epoch;
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    int v = graph.target(e);
+                    double arrival = w.t[u] + graph.weight(e);
+                    double newTime = arrival + Dijkstra.attesaMinima(v);
+                    if (w.settled[v] != w.epoch && newTime < w.time(v)) {
+                        double h = estimate(v, dst);
+                        if (h == Double.POSITIVE_INFINITY) {
+                            continue;
+                        }
+                        w.t[v] = newTime;
+                        w.pred[v] = u;
+                        w.reached[v] = w.epoch;
+                        w.queue.insertOrDecrease(v, newTime + h);
+                    }
+                }
+            }
+
+            double time = w.time(dst);
+            if (time == Double.POSITIVE_INFINITY) {
+                return new Route(time, null);
+            }
+            int length = 0;
+            for (int v = dst; v != -1; v = w.pred[v]) {
+                length++;
+            }
+            int[] path = new int[length];
+            for (int v = dst; v != -1; v = w.pred[v]) {
+                path[--length] = v;
+            }
+            return new Route(time, path);
+        }
+
+        private double estimate(int v, int dst) {
+            return landmarks == null ? 0.0 : landmarks.lowerBound(v, dst);
+        }
+
+        /* Risposte a un blocco di righe "src dst", nell'ordine delle righe. */
+        private String answer(List<String> lines) {
+            StringBuilder out = new StringBuilder();
+            for (String line : lines) {
+                String[] tokens = line.trim().split("\\s+");
+                try {
+                    if (tokens.length != 2) {
+                        throw new IllegalArgumentException("Interrogazione non valida: " + line);
+                    }
+                    out.append(route(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])));
+                } catch (IllegalArgumentException e) {
+                    out.append("ERRORE ").append(e.getMessage()).append('\n');
+                }
+            }
+            return out.toString();
+        }
+
+        /**
+         * Risponde alle interrogazioni di in (una coppia "src dst" per riga, righe
+         * vuote ignorate) con threads thread, scrivendo i risultati nell'ordine delle
+         * righe. Al più 2*threads blocchi sono in lavorazione contemporaneamente.
+         */
+        public void runBatch(BufferedReader in, Writer out, int threads) throws IOException, InterruptedException {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                Deque<Future<String>> pending = new ArrayDeque<>();
+                List<String> block = new ArrayList<>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    block.add(line);
+                    if (block.size() == BLOCK) {
+                        List<String> lines = block;
+                        pending.add(pool.submit(() -> answer(lines)));
+                        block = new ArrayList<>();
+                        if (pending.size() >= 2 * threads) {
+                            out.write(result(pending.poll()));
+                        }
+                    }
+                }
+                if (!block.isEmpty()) {
+                    List<String> lines = block;
+                    pending.add(pool.submit(() -> answer(lines)));
+                }
+                while (!pending.isEmpty()) {
+                    out.write(result(pending.poll()));
+                }
+                out.flush();
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        private static String result(Future<String> future) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return "ERRORE " + e.getCause() + "\n";
+            }
+        }
+    }
+
+
+
+    /**
+     * Tempi minimi da una sorgente (ad esempio un deposito) a tutti i nodi con il
+     * delta-stepping, su un ForkJoinPool. I nodi con distanza provvisoria in
+     * [i*delta, (i+1)*delta) stanno nel secchio i; i secchi vengono elaborati in
+     * ordine e i nodi di uno stesso secchio in parallelo. Un arco è leggero se il
+     * suo costo (peso più attesaMinima() nella testa, come in Router) non supera
+     * delta: gli archi leggeri possono riportare nodi nel secchio corrente, che
+     * viene quindi ripreso finché non si svuota; gli archi pesanti finiscono sempre
+     * in secchi successivi e sono rilassati una volta sola, quando il secchio è
+     * concluso e le distanze dei suoi nodi sono definitive.
+     * Le distanze vengono abbassate con compareAndSet, senza lock. Ogni thread
+     * inserisce i nodi migliorati nei propri secchi, riuniti in una frontiera
+     * all'inizio di ogni fase. Un delta piccolo si avvicina a Dijkstra (molte fasi
+     * con poco lavoro), uno grande a Bellman-Ford (pochi passi, nodi rilassati più
+     * volte); il valore predefinito è il costo medio degli archi.
+     * Le distanze provvisorie non ancora definitive stanno tra t(secchio corrente)
+     * e quella più il costo massimo di un arco, quindi bastano maxCost/delta + 2
+     * secchi riusati ciclicamente: il secchio i occupa la posizione i % slots.
+     * I predecessori sono calcolati alla fine, scegliendo per ogni v il più piccolo
+     * u con t[u] + costo(u,v) = t[v]: con costi positivi formano un albero.
+     *
+     * Formato binario del risultato (versione 1, little-endian): intestazione di
+     * 16 byte (MAGIC, VERSION, n, sorgente), poi t (n double) e pred (n int,
+     * -1 per la sorgente e per i nodi non raggiungibili).
+     */
+    private static class DeltaStepping {
+        static final int MAGIC = 0x44335345;    // "ES3D" letto little-endian
+        static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+        private static final int GRAIN = 512;       // Nodi della frontiera elaborati da un task senza dividersi
+        private static final VarHandle TIME = MethodHandles.arrayElementVarHandle(double[].class);
+        private static final VarHandle INT = MethodHandles.arrayElementVarHandle(int[].class);
+        private static final VarHandle LONG = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final int MAX_SLOTS = 1 << 24;   // Secchi per thread al più (delta minimo)
+
+        private final Graph graph;
+        private final int nodes, src;
+        private final double delta;
+        private final int slots;                    // Secchi dell'array ciclico di ogni thread
+        private final ForkJoinPool pool;
+        private final double[] t;                   // Tempi minimi dalla sorgente
+        private final int[] pred;                   // Predecessori nel percorso più breve
+        private final double[] lightFrom;           // Tempo con cui u ha rilassato gli archi leggeri l'ultima volta
+        private final long[] heavyIn;               // Secchio in cui u ha rilassato gli archi pesanti
+        private final List<Buckets> buckets = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<Buckets> local = ThreadLocal.withInitial(this::newBuckets);
+
+        /* Secchi di un thread in un array ciclico: il secchio i sta nella posizione i % slots. */
+        private static class Buckets {
+            final int[][] items;
+            final int[] sizes;
+            long lowest = Long.MAX_VALUE;           // Nessun secchio non vuoto sotto questo indice
+
+            Buckets(int slots) {
+                items = new int[slots][];
+                sizes = new int[slots];
             }
-            
-            public double getWeight() {
-                return this.weight;
+
+            void add(long bucket, int v) {
+                int slot = (int) (bucket % items.length);
+                int[] list = items[slot];
+                if (list == null) {
+                    list = items[slot] = new int[16];
+                } else if (sizes[slot] == list.length) {
+                    list = items[slot] = Arrays.copyOf(list, list.length * 2);
+                }
+                list[sizes[slot]++] = v;
+                lowest = Math.min(lowest, bucket);
             }
-            
-            @SuppressWarnings("unused")
-            public int getFirstVertex() {
-                return this.first;
+
+            /*
+             * Primo secchio non vuoto con indice almeno from (-1 se non esiste);
+             * i secchi non vuoti sono tutti in [from, from + slots).
+             */
+            long first(long from) {
+                for (long b = Math.max(from, lowest); b < from + items.length; b++) {
+                    if (sizes[(int) (b % items.length)] > 0) {
+                        lowest = b;
+                        return b;
+                    }
+                }
+                lowest = Long.MAX_VALUE;
+                return -1;
             }
-            
-            public int getSecondVertex() {
-                return this.second;
+        }
+
+        private Buckets newBuckets() {
+            Buckets b = new Buckets(slots);
+            buckets.add(b);
+            return b;
+        }
+
+        /* delta <= 0: costo medio degli archi. */
+        public DeltaStepping(Graph graph, int src, double delta, ForkJoinPool pool) {
+            graph.compact();
+            this.graph = graph;
+            this.nodes = graph.size();
+            if (src < 0 || src >= nodes) {
+                throw new IllegalArgumentException("Sorgente fuori intervallo: " + src);
             }
-            
-            @Override
-            public String toString() {
-                return this.first + " --> " + this.second + " [" + this.weight + "]";
+            this.src = src;
+            this.delta = delta > 0 ? delta : averageCost(graph);
+            double span = maxCost(graph) / this.delta + 2;
+            if (span > MAX_SLOTS) {
+                throw new IllegalArgumentException("delta troppo piccolo rispetto al costo massimo di un arco: " + this.delta);
             }
+            this.slots = (int) span;
+            this.pool = pool;
+            this.t = new double[nodes];
+            this.pred = new int[nodes];
+            this.lightFrom = new double[nodes];
+            this.heavyIn = new long[nodes];
+
+            findDistances();
+            pool.invoke(new PredTask(0, nodes));
         }
 
+        private static double cost(Graph graph, int e) {
+            int v = graph.target(e);
+            return graph.weight(e) + Dijkstra.attesaMinima(v);
+        }
 
-        public Graph() {
-            this.adjList = new Vector<>(n);
-            for (int i=0; i<n; i++) {
-                this.adjList.add(i, new LinkedList<Edge>() );
+        private static double averageCost(Graph graph) {
+            int edges = graph.firstEdge(graph.size());
+            if (edges == 0) {
+                return 1.0;
             }
+            double sum = 0.0;
+            for (int e = 0; e < edges; e++) {
+                sum += cost(graph, e);
+            }
+            return sum > 0 ? sum / edges : 1.0;
         }
-        
-        public void addEdge(int first, int second, double d) {
-            Edge edge = new Edge(first, second, d);
-            adjList.get(first).add(edge);
+
+        private static double maxCost(Graph graph) {
+            double max = 0.0;
+            for (int e = 0; e < graph.firstEdge(graph.size()); e++) {
+                max = Math.max(max, cost(graph, e));
+            }
+            return max;
         }
 
-        public List<Edge> getEdges(int first) {
-            return this.adjList.get(first);
+        private long bucketOf(double time) {
+            double b = time / delta;
+            if (b >= Long.MAX_VALUE / 2) {
+                throw new IllegalArgumentException("delta troppo piccolo per le distanze del grafo: " + delta);
+            }
+            return (long) b;
         }
-        
-        @Override
-        public String toString() {
-            String s = "{ ";
-            Set<Edge> allEdges = new HashSet<>();
-            for(List<Edge> edges : this.adjList) {
-                allEdges.addAll(edges);
+
+        /* Elabora i secchi in ordine: fasi leggere fino allo svuotamento, poi gli archi pesanti. */
+        private void findDistances() {
+            Arrays.fill(t, Double.POSITIVE_INFINITY);
+            Arrays.fill(lightFrom, Double.NaN);
+            Arrays.fill(heavyIn, -1);
+            Arrays.fill(pred, -1);
+            t[src] = 0.0;
+
+            long bucket = 0;
+            int[] frontier = { src };
+            List<int[]> phases = new ArrayList<>();     // Frontiere del secchio corrente
+            while (true) {
+                while (frontier.length > 0) {
+                    pool.invoke(new RelaxTask(frontier, 0, frontier.length, bucket, false));
+                    phases.add(frontier);
+                    frontier = take(bucket);
+                }
+                for (int[] phase : phases) {
+                    pool.invoke(new RelaxTask(phase, 0, phase.length, bucket, true));
+                }
+                phases.clear();
+
+                long next = -1;
+                for (Buckets b : buckets) {
+                    long first = b.first(bucket + 1);
+                    if (first != -1 && (next == -1 || first < next)) {
+                        next = first;
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+                bucket = next;
+                frontier = take(bucket);
             }
-            String sep = "";
-            for(Edge edge : allEdges) {
-                s += sep + edge;
-                sep = ", ";
+        }
+
+        /* Riunisce e svuota il secchio indicato di tutti i thread (le fasi sono concluse). */
+        private int[] take(long bucket) {
+            int slot = (int) (bucket % slots);
+            int size = 0;
+            for (Buckets b : buckets) {
+                size += b.sizes[slot];
+            }
+            int[] frontier = new int[size];
+            int at = 0;
+            for (Buckets b : buckets) {
+                if (b.sizes[slot] > 0) {
+                    System.arraycopy(b.items[slot], 0, frontier, at, b.sizes[slot]);
+                    at += b.sizes[slot];
+                    b.sizes[slot] = 0;
+                }
+            }
+            return frontier;
+        }
+
+        /* Abbassa t[v] a time se minore; in caso di successo v entra nel suo secchio. */
+        private void relax(int v, double time) {
+            double current = (double) TIME.getAcquire(t, v);
+            while (time < current) {
+                if (TIME.compareAndSet(t, v, current, time)) {
+                    local.get().add(bucketOf(time), v);
+                    return;
+                }
+                current = (double) TIME.getAcquire(t, v);
+            }
+        }
+
+        /**
+         * Rilassa gli archi leggeri (o pesanti) dei nodi frontier[from..to) ancora
+         * nel secchio indicato. Un nodo presente più volte nella frontiera, o già
+         * elaborato con lo stesso tempo, viene saltato.
+         */
+        private class RelaxTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int[] frontier;
+            private final int from, to;
+            private final long bucket;
+            private final boolean heavy;
+
+            RelaxTask(int[] frontier, int from, int to, long bucket, boolean heavy) {
+                this.frontier = frontier;
+                this.from = from;
+                this.to = to;
+                this.bucket = bucket;
+                this.heavy = heavy;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > GRAIN) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new RelaxTask(frontier, from, mid, bucket, heavy),
+                              new RelaxTask(frontier, mid, to, bucket, heavy));
+                    return;
+                }
+                for (int i = from; i < to; i++) {
+                    int u = frontier[i];
+                    double time = (double) TIME.getAcquire(t, u);
+                    if (bucketOf(time) != bucket) {
+                        continue;       // Migliorato nel frattempo: è in un altro secchio
+                    }
+                    if (heavy) {
+                        long done = (long) LONG.getAcquire(heavyIn, u);
+                        if (done == bucket || !LONG.compareAndSet(heavyIn, u, done, bucket)) {
+                            continue;
+                        }
+                    } else {
+                        double done = (double) TIME.getAcquire(lightFrom, u);
+                        if (done == time || !TIME.compareAndSet(lightFrom, u, done, time)) {
+                            continue;
+                        }
+                    }
+                    for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                        double c = cost(graph, e);
+                        if ((c > delta) == heavy) {
+                            relax(graph.target(e), time + c);
+                        }
+                    }
+                }
+            }
+        }
+
+        /* Predecessori dei nodi raggiunti dagli archi uscenti da [from, to). */
+        private class PredTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int from, to;
+
+            PredTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 8 * GRAIN) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new PredTask(from, mid), new PredTask(mid, to));
+                    return;
+                }
+                // Stessa somma di relax(): il predecessore effettivo dà esattamente t[v].
+                for (int u = from; u < to; u++) {
+                    if (t[u] == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                        int v = graph.target(e);
+                        if (v != src && t[u] + cost(graph, e) == t[v]) {
+                            int current = (int) INT.getAcquire(pred, v);
+                            while ((current == -1 || u < current) && !INT.compareAndSet(pred, v, current, u)) {
+                                current = (int) INT.getAcquire(pred, v);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        public double time(int v) {
+            return t[v];
+        }
+
+        public int pred(int v) {
+            return pred[v];
+        }
+
+        public double getDelta() {
+            return delta;
+        }
+
+        /* Scrive tempi e predecessori nel formato binario. */
+        public void save(String fileName) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(src).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, HEADER_BYTES - header.remaining());
+                }
+                channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, 8L * nodes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(t);
+                channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 8L * nodes, 4L * nodes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(pred);
             }
-            return s + " }";
         }
     }
 
 
 
     /**
-     * Dati un grafo, una sorgente e una destinazione,
-     * stampa il percorso più breve per raggiungere
-     * la destinazione dalla sorgente (se possibile).
+     * Rete stradale modificabile: per ogni nodo gli archi uscenti ed entranti in
+     * liste separate, così un arco si aggiunge, si toglie o cambia peso in O(grado)
+     * senza ricostruire il formato CSR di Graph. Un arco è identificato dai suoi
+     * estremi: con archi paralleli, setWeight() e removeEdge() agiscono sul primo.
+     * I percorsi minimi delle sorgenti registrate con register() vengono
+     * aggiornati da commit(), dopo un gruppo di modifiche, visitando solo i nodi
+     * il cui tempo può essere cambiato (vedi ShortestPathTree).
      */
-    private static class Dijkstra {
-        private final int src, dst, MATR;           // Sorgente, destinazione, numero di matricola
-        private Random rand;                        // Generatore di numeri (pseudo)casuali per il metodo attesa
-        private PriorityQueue<PriorityItem> queue;  // Coda con priorità
-        private boolean[] added;                    // Array di nodi aggiunti al percorso
-	    private double[] t;                         // Array di distanze (in tempo) dalla sorgente
-        private int[] pred;                         // Array di nodi predecessori
+    private static class DynamicGraph {
+        private final Edges[] out, in;
+        private final List<ShortestPathTree> trees = new ArrayList<>();
+        private int[] changes = new int[16];        // Coppie (u, v) degli archi modificati dall'ultimo commit()
+        private int changeCount;
+        private int edges;
 
+        /* Archi uscenti (o entranti) di un nodo: nodo all'altro estremo e peso. */
+        private static class Edges {
+            int[] node = new int[4];
+            double[] weight = new double[4];
+            int size;
 
-        /* Elemento della coda con priorità. */
-        private class PriorityItem implements Comparable<PriorityItem> {
-            int value;
-            double priority;
+            int indexOf(int x) {
+                for (int i = 0; i < size; i++) {
+                    if (node[i] == x) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
 
-            PriorityItem(int value, double priority) {
-                this.value = value;
-                this.priority = priority;
+            void add(int x, double w) {
+                if (size == node.length) {
+                    node = Arrays.copyOf(node, size * 2);
+                    weight = Arrays.copyOf(weight, size * 2);
+                }
+                node[size] = x;
+                weight[size] = w;
+                size++;
             }
 
-            public int compareTo(PriorityItem other) {
-                return Double.compare(this.priority, other.priority);
+            void removeAt(int i) {
+                size--;
+                node[i] = node[size];
+                weight[i] = weight[size];
             }
         }
 
+        public DynamicGraph(Graph graph) {
+            graph.compact();
+            int nodes = graph.size();
+            out = new Edges[nodes];
+            in = new Edges[nodes];
+            for (int u = 0; u < nodes; u++) {
+                out[u] = new Edges();
+                in[u] = new Edges();
+            }
+            for (int u = 0; u < nodes; u++) {
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    out[u].add(graph.target(e), graph.weight(e));
+                    in[graph.target(e)].add(u, graph.weight(e));
+                }
+            }
+            edges = graph.firstEdge(nodes);
+        }
 
-        public Dijkstra(int src, int dst) {
-            this.src = src;
-            this.dst = dst;
-            this.MATR = 1068987;
+        public int size() {
+            return out.length;
+        }
 
-            this.rand = new Random(MATR);        // Seed fissato numero di matricola
-            //this.rand = new Random(10000);     // Seed fissato 10_000
+        public int edgeCount() {
+            return edges;
+        }
 
-            this.queue = new PriorityQueue<>();
-            this.added = new boolean[n];
-	        this.t = new double[n];
-            this.pred = new int[n];
+        private void check(int u, int v, double w) {
+            if (u < 0 || u >= out.length || v < 0 || v >= out.length) {
+                throw new IllegalArgumentException("Arco " + u + " -> " + v + " con nodi fuori intervallo.");
+            }
+            if (!(w >= 0) || w == Double.POSITIVE_INFINITY) {
+                throw new IllegalArgumentException("Peso non valido per l'arco " + u + " -> " + v + ": " + w);
+            }
+        }
 
-            findPath();     // Calcola il cammino di costo minimo
+        private void changed(int u, int v) {
+            if (changeCount * 2 == changes.length) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
+            changes[changeCount * 2] = u;
+            changes[changeCount * 2 + 1] = v;
+            changeCount++;
+        }
+
+        public void addEdge(int u, int v, double w) {
+            check(u, v, w);
+            out[u].add(v, w);
+            in[v].add(u, w);
+            edges++;
+            changed(u, v);
+        }
+
+        /* Toglie l'arco u -> v e ne ritorna il peso. */
+        public double removeEdge(int u, int v) {
+            check(u, v, 0.0);
+            int i = out[u].indexOf(v);
+            if (i == -1) {
+                throw new IllegalArgumentException("Arco " + u + " -> " + v + " inesistente.");
+            }
+            double old = out[u].weight[i];
+            out[u].removeAt(i);
+            Edges back = in[v];
+            for (int j = 0; j < back.size; j++) {
+                if (back.node[j] == u && back.weight[j] == old) {
+                    back.removeAt(j);
+                    break;
+                }
+            }
+            edges--;
+            changed(u, v);
+            return old;
+        }
+
+        /* Cambia il peso dell'arco u -> v e ritorna quello precedente. */
+        public double setWeight(int u, int v, double w) {
+            check(u, v, w);
+            int i = out[u].indexOf(v);
+            if (i == -1) {
+                throw new IllegalArgumentException("Arco " + u + " -> " + v + " inesistente.");
+            }
+            double old = out[u].weight[i];
+            out[u].weight[i] = w;
+            Edges back = in[v];
+            for (int j = 0; j < back.size; j++) {
+                if (back.node[j] == u && back.weight[j] == old) {
+                    back.weight[j] = w;
+                    break;
+                }
+            }
+            changed(u, v);
+            return old;
+        }
+
+        /* Costo di un arco con testa v: peso più attesa minima in v. */
+        static double cost(double weight, int v) {
+            return weight + Dijkstra.attesaMinima(v);
+        }
+
+        /* Costo minimo degli archi u -> v; infinito se non ce ne sono. */
+        private double minCost(int u, int v) {
+            double best = Double.POSITIVE_INFINITY;
+            Edges list = out[u];
+            for (int i = 0; i < list.size; i++) {
+                if (list.node[i] == v) {
+                    best = Math.min(best, cost(list.weight[i], v));
+                }
+            }
+            return best;
         }
 
         /**
-         * Sfrutta l'algoritmo di Dijkstra per trovare
-         * il cammino più breve da un dato nodo sorgente
-         * (src) a un dato nodo destinazione (dst).
+         * Applica una riga di modifiche: "u v w" cambia il peso dell'arco u -> v,
+         * "+ u v w" aggiunge un arco, "- u v" lo toglie.
          */
-        private void findPath() {
+        public void apply(String line) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].equals("+") && tokens.length == 4) {
+                addEdge(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), Double.parseDouble(tokens[3]));
+            } else if (tokens[0].equals("-") && tokens.length == 3) {
+                removeEdge(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+            } else if (tokens.length == 3) {
+                setWeight(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), Double.parseDouble(tokens[2]));
+            } else {
+                throw new IllegalArgumentException("Modifica non valida: " + line);
+            }
+        }
+
+        /* Calcola (una volta) i percorsi minimi da src, poi mantenuti da commit(). */
+        public ShortestPathTree register(int src) {
+            ShortestPathTree tree = new ShortestPathTree(this, src);
+            trees.add(tree);
+            return tree;
+        }
+
+        /* Aggiorna gli alberi registrati dopo le modifiche dall'ultimo commit(). */
+        public void commit() {
+            for (ShortestPathTree tree : trees) {
+                tree.repair(changes, changeCount);
+            }
+            changeCount = 0;
+        }
+
+        /* Copia in formato CSR, ad esempio per salvarla con Graph.save(). Imposta n e m. */
+        public Graph toGraph() {
+            n = out.length;
+            m = edges;
+            Graph graph = new Graph();
+            for (int u = 0; u < out.length; u++) {
+                for (int i = 0; i < out[u].size; i++) {
+                    graph.addEdge(u, out[u].node[i], out[u].weight[i]);
+                }
+            }
+            graph.compact();
+            return graph;
+        }
+    }
+
+    /**
+     * Albero dei percorsi minimi da una sorgente su un DynamicGraph, aggiornato
+     * dopo ogni gruppo di modifiche come nell'algoritmo di Ramalingam e Reps:
+     * 1. un arco (u,v) dell'albero che è stato tolto o allungato invalida il
+     *    sottoalbero di v: i suoi nodi tornano a infinito e ognuno riparte dal
+     *    miglior arco entrante da un nodo non invalidato;
+     * 2. un arco (u,v) aggiunto o accorciato che migliora t[v] aggiorna v;
+     * 3. una ricerca di Dijkstra che parte dai nodi aggiornati propaga i nuovi
+     *    tempi, e si ferma dove i tempi non cambiano più.
+     * Il costo dipende dai nodi invalidati o migliorati e dai loro archi, non da n.
+     * Il costo di un arco è il peso più attesaMinima() nella testa, come in Router.
+     */
+    private static class ShortestPathTree {
+        private final DynamicGraph graph;
+        private final int src;
+        private final double[] t;                   // Tempi minimi dalla sorgente
+        private final int[] pred;                   // Predecessori nel percorso più breve
+        private final boolean[] invalid;            // Nodi del sottoalbero invalidato
+        private final int[] stack, invalidated;
+        private final IndexedHeap queue;
+        private int visited;                        // Nodi estratti dalla coda nell'ultimo aggiornamento
+
+        ShortestPathTree(DynamicGraph graph, int src) {
+            int nodes = graph.size();
+            if (src < 0 || src >= nodes) {
+                throw new IllegalArgumentException("Sorgente fuori intervallo: " + src);
+            }
+            this.graph = graph;
+            this.src = src;
+            this.t = new double[nodes];
+            this.pred = new int[nodes];
+            this.invalid = new boolean[nodes];
+            this.stack = new int[nodes];
+            this.invalidated = new int[nodes];
+            this.queue = new IndexedHeap(nodes);
+
             Arrays.fill(t, Double.POSITIVE_INFINITY);
             Arrays.fill(pred, -1);
-            Arrays.fill(added, false);
             t[src] = 0.0;
-    
-            for (int v=0; v<n; v++) {
-                queue.add(new PriorityItem(v, t[v]));   // insert
+            queue.insertOrDecrease(src, 0.0);
+            propagate();
+        }
+
+        /* changes contiene count coppie (u, v) di archi modificati. */
+        void repair(int[] changes, int count) {
+            // 1. Sottoalberi degli archi dell'albero tolti o allungati.
+            int size = 0;
+            for (int c = 0; c < count; c++) {
+                int u = changes[2 * c], v = changes[2 * c + 1];
+                if (pred[v] == u && !invalid[v] && t[u] + graph.minCost(u, v) > t[v]) {
+                    size = invalidate(v, size);
+                }
             }
-            
-            while (!queue.isEmpty()) {
-                int u = queue.poll().value;     // find e deleteMin
-                if(u == dst) {
-                    break;
+            for (int i = 0; i < size; i++) {
+                int x = invalidated[i];
+                t[x] = Double.POSITIVE_INFINITY;
+                pred[x] = -1;
+            }
+            for (int i = 0; i < size; i++) {
+                int x = invalidated[i];
+                DynamicGraph.Edges edges = graph.in[x];
+                for (int j = 0; j < edges.size; j++) {
+                    int y = edges.node[j];
+                    double time = t[y] + DynamicGraph.cost(edges.weight[j], x);
+                    if (!invalid[y] && time < t[x]) {
+                        t[x] = time;
+                        pred[x] = y;
+                    }
                 }
-                added[u] = true;
-                for (Graph.Edge edge : graph.getEdges(u)) {
-                    int v = edge.getSecondVertex();
-                    double newTime = t[u] + edge.getWeight() + attesa(v, t[u] + edge.getWeight());
-                    if (!added[v] && (newTime < t[v])) {
-                        t[v] = newTime;
-                        queue.add(new PriorityItem(v, t[v]));   // decreaseKey
+                if (t[x] != Double.POSITIVE_INFINITY) {
+                    queue.insertOrDecrease(x, t[x]);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                invalid[invalidated[i]] = false;
+            }
+
+            // 2. Archi aggiunti o accorciati.
+            for (int c = 0; c < count; c++) {
+                int u = changes[2 * c], v = changes[2 * c + 1];
+                double time = t[u] + graph.minCost(u, v);
+                if (time < t[v]) {
+                    t[v] = time;
+                    pred[v] = u;
+                    queue.insertOrDecrease(v, time);
+                }
+            }
+
+            // 3. Propagazione.
+            propagate();
+        }
+
+        /* Aggiunge a invalidated il sottoalbero di root (visita in profondità sui figli nell'albero). */
+        private int invalidate(int root, int size) {
+            int top = 0;
+            stack[top++] = root;
+            invalid[root] = true;
+            invalidated[size++] = root;
+            while (top > 0) {
+                int y = stack[--top];
+                DynamicGraph.Edges edges = graph.out[y];
+                for (int j = 0; j < edges.size; j++) {
+                    int x = edges.node[j];
+                    if (pred[x] == y && !invalid[x]) {
+                        invalid[x] = true;
+                        invalidated[size++] = x;
+                        stack[top++] = x;
+                    }
+                }
+            }
+            return size;
+        }
+
+        /* Dijkstra dai nodi in coda: i tempi scendono solo dove c'è un percorso migliore. */
+        private void propagate() {
+            visited = 0;
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+                visited++;
+                DynamicGraph.Edges edges = graph.out[u];
+                for (int j = 0; j < edges.size; j++) {
+                    int v = edges.node[j];
+                    double time = t[u] + DynamicGraph.cost(edges.weight[j], v);
+                    if (time < t[v]) {
+                        t[v] = time;
                         pred[v] = u;
+                        queue.insertOrDecrease(v, time);
                     }
                 }
             }
         }
 
-        /**
-         * Ritorna il tempo di attesa in corrispondenza di
-         * un nodo i raggiunto all'istante di tempo t.
-         * I commenti contengono varianti del metodo.
-         */
-        private double attesa(int i, double t) {
-            //return rand.nextDouble();
-            //return rand.nextDouble()*10;
-            return 5.0;
+        public int getSource() {
+            return src;
         }
 
-        /* Stampa il percorso più breve e il tempo necessario. */
-        public void printPath() {
-            // Controlla se la destinazione è raggiungibile.
+        public double time(int v) {
+            return t[v];
+        }
+
+        /* Numero di nodi estratti dalla coda nell'ultimo aggiornamento. */
+        public int getVisited() {
+            return visited;
+        }
+
+        /* Percorso più breve da src a dst, nello stesso formato di Router. */
+        public Route route(int dst) {
+            if (dst < 0 || dst >= t.length) {
+                throw new IllegalArgumentException("Nodo fuori intervallo: " + dst);
+            }
             if (t[dst] == Double.POSITIVE_INFINITY) {
-                System.out.println("NON RAGGIUNGIBILE.");
-            } 
-            else {
-                // Ricostruisce il percorso da src a dst e stampa.
-                String path = "";
-                for (int node=dst; node!=-1; node=pred[node]) {
-                    path = node + " " + path;
+                return new Route(t[dst], null);
+            }
+            int length = 0;
+            for (int v = dst; v != -1; v = pred[v]) {
+                length++;
+            }
+            int[] path = new int[length];
+            for (int v = dst; v != -1; v = pred[v]) {
+                path[--length] = v;
+            }
+            return new Route(t[dst], path);
+        }
+    }
+
+
+
+    /**
+     * Applica le modifiche del file a gruppi (separati da righe vuote) e stampa il
+     * percorso da source a n-1 prima delle modifiche e dopo ogni gruppo. Una riga
+     * non valida stampa "ERRORE" e viene ignorata.
+     */
+    private static void runUpdates(DynamicGraph graph, int source, String fileName) throws IOException {
+        ShortestPathTree tree = graph.register(source);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        out.write(tree.route(n-1).toString());
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            boolean pending = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    if (pending) {
+                        graph.commit();
+                        out.write(tree.route(n-1).toString());
+                        pending = false;
+                    }
+                    continue;
+                }
+                try {
+                    graph.apply(line);
+                    pending = true;
+                } catch (IllegalArgumentException e) {
+                    out.write("ERRORE " + e.getMessage() + "\n");
                 }
-                System.out.printf("%.2f\n",t[dst]);
-                System.out.println(path);
             }
+            if (pending) {
+                graph.commit();
+                out.write(tree.route(n-1).toString());
+            }
+        }
+        out.flush();
+    }
+
+    /* Legge la rete stradale dal formato testuale di rete_stradale.txt. */
+    private static Graph readTextGraph(String fileName) throws FileNotFoundException {
+        File file = new File(fileName);
+        Scanner scan = new Scanner(file);
+
+        n = Integer.parseInt(scan.nextLine());
+        m = Integer.parseInt(scan.nextLine());
+        Graph graph = new Graph();
+
+        while(scan.hasNextLine()) {
+            String[] tokens = scan.nextLine().split(" ");
+            graph.addEdge(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), Double.parseDouble(tokens[2]));
         }
+        scan.close();
+        graph.compact();
+        return graph;
     }
 
+    /* Legge la rete stradale riconoscendo il formato: binario (mappato) o testuale. */
+    static Graph readGraph(String fileName) throws IOException {
+        if (Graph.isBinary(fileName)) {
+            return Graph.map(fileName);
+        }
+        return readTextGraph(fileName);
+    }
 
 
+
+    /**
+     * Con l'opzione -convert <file> converte la rete stradale nel formato
+     * binario e la scrive nel file indicato, senza calcolare il percorso.
+     * Il file da leggere può essere in uno qualsiasi dei due formati.
+     * Con -landmarks <k> <file> calcola k landmark e li salva nel file;
+     * con -alt <file> il percorso viene calcolato con A* usando quei landmark.
+     * Con -contract <file> costruisce le Contraction Hierarchies e le salva nel file;
+     * con -ch <file> il percorso viene calcolato sulla gerarchia salvata, senza
+     * leggere la rete stradale.
+     * Con -queries <file> risponde alle interrogazioni del file (una coppia
+     * "src dst" per riga) con -threads <n> thread, con Dijkstra, ALT (-alt) o
+     * la gerarchia (-ch), e stampa i risultati nell'ordine delle righe.
+     * Con -all <file> calcola con il delta-stepping i tempi minimi da -source <nodo>
+     * (predefinito 0) a tutti i nodi, con -threads <n> thread e -delta <d>
+     * (predefinito: costo medio degli archi), e li salva nel file.
+     * Con -updates <file> applica le modifiche del file, a gruppi separati da
+     * righe vuote ("u v w" cambia il peso di un arco, "+ u v w" lo aggiunge,
+     * "- u v" lo toglie), e stampa il percorso da -source <nodo> a n-1 prima
+     * delle modifiche e dopo ogni gruppo.
+     */
     public static void main(String args[]) {
-        if (args.length != 1) {
+        String convertTo = null;
+        String landmarksTo = null, landmarksFrom = null;
+        int landmarkCount = 0;
+        String hierarchyTo = null, hierarchyFrom = null;
+        String queriesFile = null;
+        String allTo = null;
+        String updatesFile = null;
+        int source = 0;
+        double delta = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-convert") && i + 1 < args.length) {
+                convertTo = args[++i];
+            } else if (args[i].equals("-landmarks") && i + 2 < args.length) {
+                landmarkCount = Integer.parseInt(args[++i]);
+                landmarksTo = args[++i];
+            } else if (args[i].equals("-alt") && i + 1 < args.length) {
+                landmarksFrom = args[++i];
+            } else if (args[i].equals("-contract") && i + 1 < args.length) {
+                hierarchyTo = args[++i];
+            } else if (args[i].equals("-ch") && i + 1 < args.length) {
+                hierarchyFrom = args[++i];
+            } else if (args[i].equals("-queries") && i + 1 < args.length) {
+                queriesFile = args[++i];
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-all") && i + 1 < args.length) {
+                allTo = args[++i];
+            } else if (args[i].equals("-updates") && i + 1 < args.length) {
+                updatesFile = args[++i];
+            } else if (args[i].equals("-source") && i + 1 < args.length) {
+                source = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-delta") && i + 1 < args.length) {
+                delta = Double.parseDouble(args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() != (hierarchyFrom != null ? 0 : 1)) {
             System.err.println("Necessario come parametro il nome del file contenente la rete stradale.");
             return;
         }
         Locale.setDefault(Locale.US);
 
         try {
-            // Legge il file contenente la rete stradale.
-            File file = new File(args[0]);
-            Scanner scan = new Scanner(file);
-
-            n = Integer.parseInt(scan.nextLine());
-            m = Integer.parseInt(scan.nextLine());
-            graph = new Graph();
+            if (queriesFile != null) {
+                Router router;
+                if (hierarchyFrom != null) {
+                    router = new Router(ContractionHierarchy.map(hierarchyFrom));
+                } else {
+                    graph = readGraph(files.get(0));
+                    router = new Router(graph, landmarksFrom != null ? Landmarks.map(landmarksFrom) : null);
+                }
+                BufferedReader in = new BufferedReader(new FileReader(queriesFile), 1 << 16);
+                try {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+                    router.runBatch(in, out, Math.max(1, threads));
+                } finally {
+                    in.close();
+                }
+                return;
+            }
+            if (hierarchyFrom != null) {
+                ContractionHierarchy hierarchy = ContractionHierarchy.map(hierarchyFrom);
+                ContractionHierarchy.Query query = hierarchy.new Query();
+                query.run(0, n-1);
+                query.printPath();
+                return;
+            }
 
-            while(scan.hasNextLine()) {
-                String[] tokens = scan.nextLine().split(" ");
-                graph.addEdge(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), Double.parseDouble(tokens[2]));
+            // Legge il file contenente la rete stradale.
+            graph = readGraph(files.get(0));
+            if (convertTo != null) {
+                graph.save(convertTo);
+                return;
+            }
+            if (landmarksTo != null) {
+                Landmarks.build(graph, landmarkCount).save(landmarksTo);
+                return;
+            }
+            if (hierarchyTo != null) {
+                ContractionHierarchy.build(graph).save(hierarchyTo);
+                return;
+            }
+            if (updatesFile != null) {
+                runUpdates(new DynamicGraph(graph), source, updatesFile);
+                return;
+            }
+            if (allTo != null) {
+                ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+                try {
+                    new DeltaStepping(graph, source, delta, pool).save(allTo);
+                } finally {
+                    pool.shutdown();
+                }
+                return;
             }
-            scan.close();
 
-            Dijkstra d = new Dijkstra(0, n-1);
+            Landmarks landmarks = landmarksFrom != null ? Landmarks.map(landmarksFrom) : null;
+            Dijkstra d = new Dijkstra(0, n-1, landmarks);
             d.printPath();
         } catch(FileNotFoundException e) {
             System.err.println("FILE NOT FOUND: " + e);
             e.printStackTrace();
+        } catch(IOException e) {
+            System.err.println("IO ERROR: " + e);
+            e.printStackTrace();
+        } catch(IllegalArgumentException e) {
+            System.err.println("INPUT NON VALIDO: " + e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
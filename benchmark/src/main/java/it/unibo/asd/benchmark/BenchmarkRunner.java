@@ -0,0 +1,34 @@
+package it.unibo.asd.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Esegue i benchmark selezionati (tutti se non viene passata un'espressione
+ * regolare) con il profiler GC, che riporta il tasso di allocazione,
+ * e salva i risultati in formato JSON.
+ *
+ * java -cp target/benchmarks.jar it.unibo.asd.benchmark.BenchmarkRunner [regex] [risultati.json]
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "it\\.unibo\\.asd\\.benchmark\\..*";
+        String output = args.length > 1 ? args[1] : "jmh-result.json";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(output)
+                .build();
+        new Runner(options).run();
+    }
+}
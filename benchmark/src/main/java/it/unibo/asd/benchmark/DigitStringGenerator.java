@@ -0,0 +1,39 @@
+package it.unibo.asd.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generatore (con seed) di stringhe di cifre per Esercizio2.
+ * - ALL_ZEROS: caso avverso, ogni prefisso di zeri è decodificabile in più modi.
+ * - CODES: concatenazione casuale di codici del cifrario (sempre decodificabile).
+ * - RANDOM: cifre 0/1 casuali (spesso con pochissime decodifiche).
+ */
+public final class DigitStringGenerator {
+
+    public enum Kind { ALL_ZEROS, CODES, RANDOM }
+
+    private static final String[] CODES = {"0", "00", "001", "010", "0010", "0100", "0110", "0001"};
+
+    private DigitStringGenerator() {
+    }
+
+    static String generate(Kind kind, int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder s = new StringBuilder(length + 4);
+        while (s.length() < length) {
+            switch (kind) {
+                case ALL_ZEROS:
+                    s.append('0');
+                    break;
+                case CODES:
+                    s.append(CODES[random.nextInt(CODES.length)]);
+                    break;
+                default:
+                    s.append(random.nextBoolean() ? '1' : '0');
+                    break;
+            }
+        }
+        s.setLength(length);
+        return s.toString();
+    }
+}
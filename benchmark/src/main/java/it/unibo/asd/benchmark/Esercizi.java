@@ -0,0 +1,173 @@
+package it.unibo.asd.benchmark;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Accesso agli esercizi, che stanno nel package di default e non possono
+ * essere importati: tutti i metodi e i campi usati dai benchmark vengono
+ * risolti qui, una sola volta, tramite reflection.
+ */
+final class Esercizi {
+    private static final Class<?> ESERCIZIO1 = load("Esercizio1");
+    private static final Class<?> ESERCIZIO2 = load("Esercizio2");
+    private static final Class<?> ESERCIZIO3 = load("Esercizio3");
+
+    private static final Method READ_COMPACT_TREE = method(ESERCIZIO1, "readCompactTree", String.class);
+    private static final Method READ_PAIRS_TREE = method(ESERCIZIO1, "readPairsTree", String.class, load("Esercizio1$TreeBuilder"));
+    private static final Method READ_NESTED_TREE = method(ESERCIZIO1, "readNestedTree", String.class, load("Esercizio1$TreeBuilder"));
+    private static final Method PAIRS_LOADER = method(load("Esercizio1$PairsLoader"), "load", String.class, ForkJoinPool.class);
+    private static final Method PARALLEL_EQUALS = method(load("Esercizio1$CompactTree"), "parallelEquals", load("Esercizio1$CompactTree"), ForkJoinPool.class);
+    private static final Constructor<?> NODE_BUILDER = constructor(load("Esercizio1$Tree$Builder"));
+    private static final Constructor<?> COMPACT_BUILDER = constructor(load("Esercizio1$CompactTree$Builder"));
+
+    private static final Method SET_ENCODINGS = method(ESERCIZIO2, "setEncodings");
+    private static final Method FIND_DECODINGS = method(ESERCIZIO2, "findDecodings");
+    private static final Field DIGITS = field(ESERCIZIO2, "s");
+
+    private static final Field NODES = field(ESERCIZIO3, "n");
+    private static final Field EDGES = field(ESERCIZIO3, "m");
+    private static final Field GRAPH = field(ESERCIZIO3, "graph");
+    private static final Constructor<?> GRAPH_CONSTRUCTOR = constructor(load("Esercizio3$Graph"));
+    private static final Method ADD_EDGE = method(load("Esercizio3$Graph"), "addEdge", int.class, int.class, double.class);
+    private static final Constructor<?> DIJKSTRA = constructor(load("Esercizio3$Dijkstra"), int.class, int.class);
+
+    private Esercizi() {
+    }
+
+
+    /* Esercizio1: alberi. */
+
+    static Object readCompactTree(String fileName) {
+        return invoke(READ_COMPACT_TREE, null, fileName);
+    }
+
+    static Object loadPairsInParallel(String fileName) {
+        return invoke(PAIRS_LOADER, null, fileName, ForkJoinPool.commonPool());
+    }
+
+    static Object readPairsNodeTree(String fileName) {
+        return invoke(READ_PAIRS_TREE, null, fileName, newInstance(NODE_BUILDER));
+    }
+
+    static Object readNestedNodeTree(String fileName) {
+        return invoke(READ_NESTED_TREE, null, fileName, newInstance(NODE_BUILDER));
+    }
+
+    static Object readNestedCompactTree(String fileName) {
+        return invoke(READ_NESTED_TREE, null, fileName, newInstance(COMPACT_BUILDER));
+    }
+
+    static boolean parallelEquals(Object a, Object b) {
+        return (Boolean) invoke(PARALLEL_EQUALS, a, b, ForkJoinPool.commonPool());
+    }
+
+
+    /* Esercizio2: decodifiche. */
+
+    @SuppressWarnings("unchecked")
+    static Set<String> findDecodings(String digits) {
+        try {
+            DIGITS.set(null, digits);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        invoke(SET_ENCODINGS, null);
+        return (Set<String>) invoke(FIND_DECODINGS, null);
+    }
+
+
+    /* Esercizio3: rete stradale. */
+
+    static void buildRoadNetwork(RoadNetworkGenerator.Network network) {
+        try {
+            NODES.setInt(null, network.nodes);
+            EDGES.setInt(null, network.edges());
+            Object graph = newInstance(GRAPH_CONSTRUCTOR);
+            for (int e = 0; e < network.edges(); e++) {
+                ADD_EDGE.invoke(graph, network.from[e], network.to[e], network.weight[e]);
+            }
+            GRAPH.set(null, graph);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* Crea un Dijkstra, il cui costruttore esegue findPath(). */
+    static Object findPath(int src, int dst) {
+        return newInstance(DIJKSTRA, src, dst);
+    }
+
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Classe dell'esercizio non trovata: " + name, e);
+        }
+    }
+
+    private static Method method(Class<?> owner, String name, Class<?>... parameters) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Metodo non trovato: " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static Field field(Class<?> owner, String name) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Campo non trovato: " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static Constructor<?> constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Costruttore non trovato: " + owner.getName(), e);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static Object newInstance(Constructor<?> constructor, Object... args) {
+        try {
+            return constructor.newInstance(args);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,94 @@
+package it.unibo.asd.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Costruzione e confronto degli alberi di Esercizio1. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Xss16m"})
+public class Esercizio1Benchmark {
+
+    @Param({"BALANCED", "SKEWED", "DEEP"})
+    public TreeGenerator.Shape shape;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"42"})
+    public long seed;
+
+    private Path dir;
+    private String pairsFile;
+    private String nestedFile;
+    private Object pairsTree;
+    private Object nestedTree;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("esercizio1-bench");
+        int[] parent = TreeGenerator.parents(shape, size, seed);
+        int[] values = TreeGenerator.values(size, seed);
+        pairsFile = dir.resolve("pairs.txt").toString();
+        nestedFile = dir.resolve("nested.txt").toString();
+        TreeGenerator.writePairs(Path.of(pairsFile), parent, values);
+        TreeGenerator.writeNested(Path.of(nestedFile), parent, values);
+
+        pairsTree = Esercizi.loadPairsInParallel(pairsFile);
+        nestedTree = Esercizi.readNestedCompactTree(nestedFile);
+        if (!pairsTree.equals(nestedTree)) {
+            throw new IllegalStateException("Gli alberi generati dovrebbero essere uguali.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(pairsFile));
+        Files.deleteIfExists(Path.of(nestedFile));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Object loadPairsCompact() {
+        return Esercizi.loadPairsInParallel(pairsFile);
+    }
+
+    @Benchmark
+    public Object readNestedCompact() {
+        return Esercizi.readNestedCompactTree(nestedFile);
+    }
+
+    @Benchmark
+    public boolean buildAndCompareNodeTrees() {
+        return Esercizi.readPairsNodeTree(pairsFile).equals(Esercizi.readNestedNodeTree(nestedFile));
+    }
+
+    @Benchmark
+    public boolean compareCompact() {
+        return pairsTree.equals(nestedTree);
+    }
+
+    @Benchmark
+    public boolean compareCompactParallel() {
+        return Esercizi.parallelEquals(pairsTree, nestedTree);
+    }
+}
@@ -0,0 +1,52 @@
+package it.unibo.asd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Enumerazione delle decodifiche di Esercizio2.
+ * Il numero di decodifiche cresce in modo esponenziale con la lunghezza
+ * (ALL_ZEROS di lunghezza 24 ne ha decine di migliaia), quindi le lunghezze
+ * restano piccole.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class Esercizio2Benchmark {
+
+    @Param({"ALL_ZEROS", "CODES", "RANDOM"})
+    public DigitStringGenerator.Kind kind;
+
+    @Param({"16", "24"})
+    public int length;
+
+    @Param({"42"})
+    public long seed;
+
+    private String digits;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        digits = DigitStringGenerator.generate(kind, length, seed);
+    }
+
+    @Benchmark
+    public int findDecodings() {
+        return Esercizi.findDecodings(digits).size();
+    }
+}
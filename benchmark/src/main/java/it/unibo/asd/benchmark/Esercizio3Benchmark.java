@@ -0,0 +1,49 @@
+package it.unibo.asd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Cammino minimo da 0 a n-1 con Dijkstra.findPath() di Esercizio3. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class Esercizio3Benchmark {
+
+    @Param({"GRID", "RANDOM"})
+    public RoadNetworkGenerator.Kind kind;
+
+    @Param({"10000", "1000000"})
+    public int nodes;
+
+    @Param({"42"})
+    public long seed;
+
+    private int dst;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RoadNetworkGenerator.Network network = RoadNetworkGenerator.generate(kind, nodes, seed);
+        Esercizi.buildRoadNetwork(network);
+        dst = network.nodes - 1;
+    }
+
+    @Benchmark
+    public Object findPath() {
+        return Esercizi.findPath(0, dst);
+    }
+}
@@ -0,0 +1,97 @@
+package it.unibo.asd.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Generatore (con seed) di reti stradali per Esercizio3.
+ * - GRID: griglia lato x lato con strade nei due versi tra nodi adiacenti.
+ * - RANDOM: un cammino 0 -> 1 -> ... -> n-1 (garantisce la raggiungibilità)
+ *   più archi casuali, in media 4 uscenti per nodo.
+ * I pesi sono tempi di percorrenza casuali tra 1 e 100.
+ */
+public final class RoadNetworkGenerator {
+
+    public enum Kind { GRID, RANDOM }
+
+    /* Rete generata, come lista di archi. */
+    static final class Network {
+        final int nodes;
+        final int[] from;
+        final int[] to;
+        final double[] weight;
+        private int size;
+
+        Network(int nodes, int capacity) {
+            this.nodes = nodes;
+            this.from = new int[capacity];
+            this.to = new int[capacity];
+            this.weight = new double[capacity];
+        }
+
+        void add(int u, int v, double w) {
+            from[size] = u;
+            to[size] = v;
+            weight[size] = w;
+            size++;
+        }
+
+        int edges() {
+            return size;
+        }
+
+        /* Scrive la rete nel formato di rete_stradale.txt. */
+        void writeText(Path file) throws IOException {
+            try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII), 1 << 16)) {
+                out.write(nodes + "\n" + size + "\n");
+                for (int e = 0; e < size; e++) {
+                    out.write(from[e] + " " + to[e] + " " + weight[e] + "\n");
+                }
+            }
+        }
+    }
+
+    private RoadNetworkGenerator() {
+    }
+
+    /* Per GRID nodes viene arrotondato al quadrato perfetto inferiore. */
+    static Network generate(Kind kind, int nodes, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        if (kind == Kind.GRID) {
+            int side = Math.max(2, (int) Math.sqrt(nodes));
+            Network network = new Network(side * side, 4 * side * side);
+            for (int r = 0; r < side; r++) {
+                for (int c = 0; c < side; c++) {
+                    int u = r * side + c;
+                    if (c + 1 < side) {
+                        network.add(u, u + 1, weight(random));
+                        network.add(u + 1, u, weight(random));
+                    }
+                    if (r + 1 < side) {
+                        network.add(u, u + side, weight(random));
+                        network.add(u + side, u, weight(random));
+                    }
+                }
+            }
+            return network;
+        }
+
+        Network network = new Network(nodes, 5 * nodes);
+        for (int u = 0; u + 1 < nodes; u++) {
+            network.add(u, u + 1, weight(random) * 50);
+        }
+        for (int e = 0; e < 4 * nodes; e++) {
+            network.add(random.nextInt(nodes), random.nextInt(nodes), weight(random));
+        }
+        return network;
+    }
+
+    private static double weight(SplittableRandom random) {
+        return Math.round((1 + random.nextDouble() * 99) * 100) / 100.0;
+    }
+}
@@ -0,0 +1,108 @@
+package it.unibo.asd.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Generatore (con seed) di alberi per Esercizio1, scritti in entrambi i formati:
+ * coppie padre-figlio e liste annidate.
+ * - BALANCED: albero 4-ario completo, profondità logaritmica.
+ * - SKEWED: ogni nodo si attacca con alta probabilità a uno degli ultimi nodi
+ *   inseriti, altrimenti a un nodo qualsiasi (pochi rami molto lunghi).
+ * - DEEP: catena con rare ramificazioni, profondità circa n.
+ */
+public final class TreeGenerator {
+
+    public enum Shape { BALANCED, SKEWED, DEEP }
+
+    private TreeGenerator() {
+    }
+
+    /* Padre di ogni nodo (parent[0] = -1 per la radice). */
+    static int[] parents(Shape shape, int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] parent = new int[n];
+        parent[0] = -1;
+        for (int i = 1; i < n; i++) {
+            switch (shape) {
+                case BALANCED:
+                    parent[i] = (i - 1) / 4;
+                    break;
+                case SKEWED:
+                    parent[i] = random.nextInt(10) < 8 ? Math.max(0, i - 1 - random.nextInt(3)) : random.nextInt(i);
+                    break;
+                default:
+                    parent[i] = random.nextInt(100) == 0 ? random.nextInt(i) : i - 1;
+                    break;
+            }
+        }
+        return parent;
+    }
+
+    /* Valori distinti 1..n in ordine casuale. */
+    static int[] values(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i + 1;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        return values;
+    }
+
+    static void writePairs(Path file, int[] parent, int[] values) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII), 1 << 16)) {
+            for (int i = 1; i < parent.length; i++) {
+                out.write(values[parent[i]] + ", " + values[i] + "\n");
+            }
+        }
+    }
+
+    /* Scrive la lista annidata con una visita iterativa (gli alberi DEEP sono profondi). */
+    static void writeNested(Path file, int[] parent, int[] values) throws IOException {
+        int n = parent.length;
+        int[] childStart = new int[n + 1];
+        for (int i = 1; i < n; i++) {
+            childStart[parent[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] children = new int[Math.max(1, n - 1)];
+        int[] fill = childStart.clone();
+        for (int i = 1; i < n; i++) {
+            children[fill[parent[i]]++] = i;
+        }
+
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII), 1 << 16)) {
+            int[] node = new int[n];
+            int[] next = new int[n];
+            int top = 0;
+            node[top] = 0;
+            next[top++] = childStart[0];
+            out.write("[" + values[0]);
+            while (top > 0) {
+                int u = node[top - 1];
+                if (next[top - 1] < childStart[u + 1]) {
+                    int c = children[next[top - 1]++];
+                    out.write(", [" + values[c]);
+                    node[top] = c;
+                    next[top++] = childStart[c];
+                } else {
+                    out.write(']');
+                    top--;
+                }
+            }
+        }
+    }
+}